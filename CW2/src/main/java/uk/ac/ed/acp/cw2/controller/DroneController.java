@@ -15,6 +15,7 @@ import uk.ac.ed.acp.cw2.services.PathPlanningService;
 import uk.ac.ed.acp.cw2.services.DroneQueriesService;
 
 import java.net.URL;
+import java.time.Duration;
 import java.util.List;
 
 @RestController()
@@ -78,10 +79,18 @@ public class DroneController {
 
     @PostMapping("/calcDeliveryPath")
     public ResponseEntity<DeliveryPath> calcDeliveryPath(
-            @Valid @RequestBody List<MedDispatchRec> req
+            @Valid @RequestBody List<MedDispatchRec> req,
+            @RequestParam(required = false) Long deadlineMs
     ){
         logger.info("Received /calcDeliveryPath request");
-        return ResponseEntity.ok(pathPlanningService.calcDeliveryPath(req));
+        if (deadlineMs == null) {
+            return ResponseEntity.ok(pathPlanningService.calcDeliveryPath(req));
+        }
+        if (deadlineMs < 0) {
+            throw new IllegalArgumentException("deadlineMs cannot be negative");
+        }
+        return ResponseEntity.ok(pathPlanningService.calcDeliveryPath(
+                req, Duration.ofMillis(deadlineMs)));
     }
 
     @PostMapping("/calcDeliveryPathAsGeoJson")
@@ -2,9 +2,22 @@ package uk.ac.ed.acp.cw2.data;
 
 import java.util.List;
 
+/**
+ * @param suboptimalityBound every flight path takes at most this many
+ *                           times the fewest moves the planner's search
+ *                           can represent, one lattice node per half-STEP
+ *                           cell. Routes between those nodes are not
+ *                           searched, so the true fewest lattice moves may
+ *                           be lower. null when a path was planned without
+ *                           a bound
+ */
 public record DeliveryPath(
         double totalCost,
         int totalMoves,
-        List<DronePath> dronePaths
+        List<DronePath> dronePaths,
+        Double suboptimalityBound
 ) {
+    public DeliveryPath(double totalCost, int totalMoves, List<DronePath> dronePaths) {
+        this(totalCost, totalMoves, dronePaths, null);
+    }
 }
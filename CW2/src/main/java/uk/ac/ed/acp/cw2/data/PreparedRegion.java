@@ -0,0 +1,126 @@
+package uk.ac.ed.acp.cw2.data;
+
+import java.util.List;
+
+/**
+ * Read-only, packed form of a {@link Region} for repeated point-in-region
+ * tests. Vertices are unboxed into double[], the bounding box is known up
+ * front, and each edge keeps its direction vector and inverse slope so the
+ * ray cast does no per-call division. Answers match the Region version.
+ */
+public final class PreparedRegion {
+    private final String name;
+    // closed ring: vertex n == vertex 0, edge i runs from i to i + 1
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] edgeDx;
+    private final double[] edgeDy;
+    private final double[] inverseSlope;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    private PreparedRegion(Region region) {
+        List<Position> vertices = region.vertices();
+        int n = vertices.size();
+        this.name = region.name();
+        this.xs = new double[n];
+        this.ys = new double[n];
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            xs[i] = vertices.get(i).lng();
+            ys[i] = vertices.get(i).lat();
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+
+        this.edgeDx = new double[n - 1];
+        this.edgeDy = new double[n - 1];
+        this.inverseSlope = new double[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            edgeDx[i] = xs[i + 1] - xs[i];
+            edgeDy[i] = ys[i + 1] - ys[i];
+            // only read for edges that straddle the ray, so never 0/0
+            inverseSlope[i] = (xs[i] - xs[i + 1]) / (ys[i] - ys[i + 1]);
+        }
+    }
+
+    public static PreparedRegion of(Region region) {
+        return new PreparedRegion(region);
+    }
+
+    public static List<PreparedRegion> of(List<Region> regions) {
+        return regions.stream().map(PreparedRegion::of).toList();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int edgeCount() {
+        return edgeDx.length;
+    }
+
+    /** x (lng) of vertex i; edge i runs from vertex i to vertex i + 1 */
+    public double x(int i) {
+        return xs[i];
+    }
+
+    /** y (lat) of vertex i */
+    public double y(int i) {
+        return ys[i];
+    }
+
+    public double minX() {
+        return minX;
+    }
+
+    public double minY() {
+        return minY;
+    }
+
+    public double maxX() {
+        return maxX;
+    }
+
+    public double maxY() {
+        return maxY;
+    }
+
+    public boolean boundsContain(double px, double py) {
+        return px >= minX && px <= maxX && py >= minY && py <= maxY;
+    }
+
+    /** Points on an edge count as inside, as in GeometryService.isInRegion */
+    public boolean contains(double px, double py) {
+        if (!boundsContain(px, py)) return false;
+
+        boolean inRegion = false;
+        for (int i = 0; i < edgeDx.length; i++) {
+            double x1 = xs[i], y1 = ys[i];
+            double x2 = xs[i + 1], y2 = ys[i + 1];
+
+            // point on edge: ap is parallel to ab and inside its box
+            double cross = (py - y1) * edgeDx[i] - (px - x1) * edgeDy[i];
+            if (cross == 0
+                    && px >= Math.min(x1, x2) && px <= Math.max(x1, x2)
+                    && py >= Math.min(y1, y2) && py <= Math.max(y1, y2)) {
+                return true;
+            }
+            // ray cast to the left of p
+            if (((py < y1) != (py < y2))
+                    && (px < x2 + (py - y2) * inverseSlope[i])) {
+                inRegion = !inRegion;
+            }
+        }
+        return inRegion;
+    }
+}
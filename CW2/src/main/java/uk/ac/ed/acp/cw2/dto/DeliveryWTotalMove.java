@@ -4,8 +4,15 @@ import uk.ac.ed.acp.cw2.data.Delivery;
 
 import java.util.List;
 
+/**
+ * @param suboptimality largest bound of any leg, NaN if a leg has none
+ */
 public record DeliveryWTotalMove(
         int totalMove,
-        List<Delivery> deliveries
+        List<Delivery> deliveries,
+        double suboptimality
 ) {
+    public DeliveryWTotalMove(int totalMove, List<Delivery> deliveries) {
+        this(totalMove, deliveries, Double.NaN);
+    }
 }
@@ -3,8 +3,17 @@ import uk.ac.ed.acp.cw2.data.Position;
 
 import java.util.List;
 
+/**
+ * @param suboptimality at most how many times the fewest moves this path
+ *                      takes, over the nodes the search keeps (see
+ *                      AnytimeSearch); NaN when the planner gives no bound
+ */
 public record PositionsWTotalMove(
         int totalMove,
-        List<Position> positions
+        List<Position> positions,
+        double suboptimality
 ) {
+    public PositionsWTotalMove(int totalMove, List<Position> positions) {
+        this(totalMove, positions, Double.NaN);
+    }
 }
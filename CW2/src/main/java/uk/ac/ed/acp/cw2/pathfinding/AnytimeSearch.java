@@ -0,0 +1,469 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Anytime repairing A* (ARA*) over the flight lattice. Every move costs
+ * one, and nodes are ordered by g + weight * h. The first pass runs with
+ * the initial weight and finds a route quickly; each later pass lowers the
+ * weight and repairs the search it already has, reopening only the nodes
+ * whose g went down, until the weight reaches 1 or the deadline passes.
+ *
+ * Lattice keys are rounded so finely that two routes almost never meet at
+ * the same node, so each half-STEP cell holds one node: the first to reach
+ * it, until a cheaper one takes it over. The route found is never more
+ * than bound() times the fewest moves over the nodes kept, given a
+ * heuristic that never overestimates the moves still needed. A node turned
+ * away from its cell may have led on to a shorter route, or through a gap
+ * the kept node misses, so this is not a bound on every lattice route.
+ * Like planPath, the start keeps its exact position and the route ends at
+ * the first node within the close-to distance of the goal.
+ *
+ * With lazy edges, a move to a node nothing has expanded yet is queued
+ * unchecked, and only checked against the regions when the node is
+ * popped; most queued nodes never are. A node whose move turns out to be
+ * blocked is repaired: it is reached instead from the cheapest expanded
+ * node next to its cell, or dropped if none can reach it. Moves to
+ * expanded nodes or to the goal are still checked at once, so every move
+ * of the route found has been checked.
+ *
+ * With runs, each expanded node flies every heading in a straight line
+ * and only the node a run stops at is queued: where a region comes within
+ * a STEP, before the goal falls more than one heading off its own, or before a
+ * move that is blocked or reaches a cell no more cheaply than its holder.
+ * Open ground then takes a handful of expansions instead of one per STEP,
+ * and the bound holds over the routes such runs can fly.
+ */
+public class AnytimeSearch {
+    /** How each expanded node reaches the nodes after it */
+    public enum Successors {
+        // one STEP in each direction, checked at once
+        STEPS,
+        // one STEP in each direction, checked when popped
+        LAZY_STEPS,
+        // straight runs in each direction, queued only where they stop
+        RUNS
+    }
+
+    // Weight taken off after each pass
+    private static final double WEIGHT_STEP = 0.5;
+    // Only look at the clock, and for interrupts, every this many expansions
+    private static final int CLOCK_EVERY = 256;
+    // Side of the cells that hold one node each, in STEPs
+    private static final double CELL_STEPS = 0.5;
+    // Cells either side searched for a node to repair a blocked cell from:
+    // a move of one STEP spans two cells, and can start anywhere in a third
+    private static final int REPAIR_CELLS = 3;
+    // Longest run in one heading, in STEPs
+    private static final int MAX_RUN = 256;
+    private static final double SECTOR_TAN =
+            Math.tan(Math.toRadians(Lattice.ANGLE_CONSTRAINT));
+
+    private final RestrictedAirspace airspace;
+    private final Position start;
+    private final Position goal;
+    private final double closeThreshold;
+    private final SearchBounds bounds;
+    private final DoubleBinaryOperator heuristic;
+    private final boolean lazyEdges;
+    private final boolean jumpRuns;
+
+    private final NodeTable nodes = new NodeTable();
+    // cell key -> id + 1 of the node holding it, through holder[]
+    private final NodeTable cells = new NodeTable();
+    private int[] holder = new int[1024];
+    private final OpenSet open = new OpenSet();
+    // closed nodes whose g went down in this pass, reopened in the next
+    private final BitSet inconsistent = new BitSet();
+    // nodes ever expanded, whose moves in have all been checked
+    private final BitSet expanded = new BitSet();
+    // queued nodes whose move from their parent is not checked yet
+    private final BitSet unchecked = new BitSet();
+    private double[] h = new double[1024];
+    private double weight;
+    private int goalNode = -1;
+    private int expansions;
+    private int edgeChecks;
+    private int passes;
+    private double bound = Double.POSITIVE_INFINITY;
+
+    /**
+     * @param heuristic moves still needed from (x, y) to come within the
+     *                  close-to distance of the goal, never overestimated
+     */
+    public AnytimeSearch(RestrictedAirspace airspace, Position start, Position goal,
+                         double closeThreshold, SearchBounds bounds,
+                         DoubleBinaryOperator heuristic) {
+        this(airspace, start, goal, closeThreshold, bounds, heuristic, Successors.STEPS);
+    }
+
+    public AnytimeSearch(RestrictedAirspace airspace, Position start, Position goal,
+                         double closeThreshold, SearchBounds bounds,
+                         DoubleBinaryOperator heuristic, Successors successors) {
+        this.airspace = airspace;
+        this.start = start;
+        this.goal = goal;
+        this.closeThreshold = closeThreshold;
+        this.bounds = bounds;
+        this.heuristic = heuristic;
+        this.lazyEdges = successors == Successors.LAZY_STEPS;
+        this.jumpRuns = successors == Successors.RUNS;
+    }
+
+    /**
+     * Runs passes from initialWeight down to 1 while time remains. The
+     * first pass always runs to the end, within the expansion budget.
+     * @param deadline System.nanoTime() after which no new pass starts and
+     *                 a running one is cut short
+     * @return true if a route was found; false if none exists, or none was
+     * found within the expansion budget (see budgetSpent)
+     */
+    public boolean search(double initialWeight, long deadline) {
+        int startNode = nodes.getOrAdd(Lattice.key(start));
+        nodes.setG(startNode, 0.0);
+        holder[cells.getOrAdd(cellKey(start.lng(), start.lat()))] = startNode + 1;
+        if (isCloseTo(start.lng(), start.lat())) {
+            goalNode = startNode;
+            bound = 1.0;
+            passes = 1;
+            return true;
+        }
+        weight = Math.max(1.0, initialWeight);
+        open.push(startNode, weight * h(startNode, start.lng(), start.lat()));
+
+        improve(false, deadline);
+        if (goalNode < 0) return false;
+        updateBound();
+
+        while (bound > 1.0 && weight > 1.0 && !budgetSpent()
+                && System.nanoTime() - deadline < 0) {
+            weight = Math.max(1.0, weight - WEIGHT_STEP);
+            reopen();
+            if (!improve(true, deadline)) break;
+            updateBound();
+        }
+        return true;
+    }
+
+    // One pass: expand until no open node could lead to a shorter route.
+    // False if the budget, or when timed the deadline, cut it short.
+    private boolean improve(boolean timed, long deadline) {
+        while (!open.isEmpty() && goalG() > open.peekF()) {
+            if (budgetSpent()) return false;
+            if (++expansions % CLOCK_EVERY == 0) {
+                // e.g. cancelled by ConcurrentPlanning when a sibling failed
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("Search was interrupted");
+                }
+                if (timed && System.nanoTime() - deadline > 0) return false;
+            }
+
+            int curr = open.poll();
+            if (unchecked.get(curr)) {
+                unchecked.clear(curr);
+                int parent = nodes.parent(curr);
+                if (blocked(x(parent), y(parent), x(curr), y(curr))) {
+                    repair(curr);
+                    continue;
+                }
+            }
+            nodes.close(curr);
+            expanded.set(curr);
+            double x = x(curr), y = y(curr);
+            for (int dir = 0; dir < Lattice.DIRECTIONS; dir++) {
+                if (jumpRuns) {
+                    run(curr, x, y, dir);
+                } else {
+                    step(curr, x, y, dir);
+                }
+            }
+        }
+        passes++;
+        return true;
+    }
+
+    // Relaxes the single move from node from at (x, y) in direction dir
+    private void step(int from, double x, double y, int dir) {
+        double newCost = nodes.g(from) + 1;
+        long next = Lattice.neighbour(x, y, dir);
+        double nx = Lattice.lng(next), ny = Lattice.lat(next);
+        if (!bounds.contains(nx, ny)) return;
+        int cell = cellOf(nx, ny);
+        int held = holder[cell] - 1;
+        if (held >= 0 && newCost >= nodes.g(held)) return;
+
+        int neighbour = nodes.find(next);
+        if (neighbour >= 0 && newCost >= nodes.g(neighbour)) return;
+        boolean goalMove = isCloseTo(nx, ny);
+        boolean lazy = lazyEdges && !goalMove
+                && (neighbour < 0 || !expanded.get(neighbour));
+        if (!lazy && blocked(x, y, nx, ny)) return;
+
+        if (neighbour < 0) neighbour = nodes.getOrAdd(next);
+        take(cell, held, neighbour, from, newCost);
+        if (lazy) unchecked.set(neighbour);
+        // the route ends at the first node close to the goal
+        if (goalMove) {
+            reachedGoal(neighbour);
+        } else {
+            queue(neighbour, nx, ny);
+        }
+    }
+
+    // Flies from node from at (x, y) in direction dir until a turn could
+    // be worth it, and queues only the node the run stops at. The nodes
+    // passed over get g and a parent like any other, so the route still
+    // comes back one STEP at a time, but only queued ones hold a cell:
+    // one never expanded must not turn away cheaper arrivals from other
+    // directions.
+    private void run(int from, double x, double y, int dir) {
+        int prev = from;
+        double px = x, py = y;
+        for (int i = 1; i <= MAX_RUN; i++) {
+            double newCost = nodes.g(from) + i;
+            long next = Lattice.neighbour(px, py, dir);
+            double nx = Lattice.lng(next), ny = Lattice.lat(next);
+            if (!bounds.contains(nx, ny)) break;
+            int cell = cellOf(nx, ny);
+            int held = holder[cell] - 1;
+            if (held >= 0 && newCost >= nodes.g(held)) break;
+            int node = nodes.find(next);
+            if (node >= 0 && newCost >= nodes.g(node)) break;
+            if (blocked(px, py, nx, ny)) break;
+
+            if (node < 0) node = nodes.getOrAdd(next);
+            boolean stop = isCloseTo(nx, ny)
+                    || !goalAhead(nx + Lattice.DX[dir], ny + Lattice.DY[dir], dir)
+                    || i == MAX_RUN
+                    || !airspace.clearAround(nx, ny, Lattice.STEP);
+            // a node passed over: already queued or closed, it is brought
+            // up to date, otherwise the run stands in for it
+            boolean queued = open.contains(node) || nodes.isClosed(node);
+            if (stop || queued) {
+                take(cell, held, node, prev, newCost);
+            } else {
+                nodes.setParent(node, prev);
+                nodes.setG(node, newCost);
+            }
+            if (isCloseTo(nx, ny)) {
+                reachedGoal(node);
+                return;
+            }
+            prev = node;
+            px = nx;
+            py = ny;
+            if (stop) break;
+            if (queued) queue(node, nx, ny);
+        }
+        if (prev != from) queue(prev, px, py);
+    }
+
+    // Whether the goal lies within one heading either side of dir, seen
+    // from (x, y); once it does not, the run should have turned
+    private boolean goalAhead(double x, double y, int dir) {
+        double gx = goal.lng() - x, gy = goal.lat() - y;
+        double along = gx * Lattice.DX[dir] + gy * Lattice.DY[dir];
+        double across = gx * Lattice.DY[dir] - gy * Lattice.DX[dir];
+        return along > 0 && Math.abs(across) < along * SECTOR_TAN;
+    }
+
+    // node takes the cell from held, reached from parent at cost g
+    private void take(int cell, int held, int node, int parent, double g) {
+        if (held >= 0 && held != node) {
+            // a cheaper node takes the cell; the old one keeps its
+            // own parent chain but is not expanded again
+            open.remove(held);
+            inconsistent.clear(held);
+            unchecked.clear(held);
+        }
+        holder[cell] = node + 1;
+        nodes.setParent(node, parent);
+        nodes.setG(node, g);
+        unchecked.clear(node);
+    }
+
+    private void reachedGoal(int node) {
+        if (goalNode < 0 || nodes.g(node) < nodes.g(goalNode)) goalNode = node;
+    }
+
+    // Queues a node whose g went down, or marks it for the next pass
+    private void queue(int node, double x, double y) {
+        if (nodes.isClosed(node)) {
+            inconsistent.set(node);
+        } else {
+            open.push(node, nodes.g(node) + weight * h(node, x, y));
+        }
+    }
+
+    private int cellOf(double x, double y) {
+        int cell = cells.getOrAdd(cellKey(x, y));
+        if (cell >= holder.length) {
+            holder = Arrays.copyOf(holder, Math.max(cell + 1, holder.length * 2));
+        }
+        return cell;
+    }
+
+    // A popped node whose move in is blocked: reach its cell from the
+    // cheapest expanded node one move away instead, or give the cell up.
+    // The node forgets the blocked move first, since another move order
+    // often reaches the very same point.
+    private void repair(int node) {
+        nodes.setG(node, Double.POSITIVE_INFINITY);
+        nodes.setParent(node, -1);
+        double x = x(node), y = y(node);
+        long cellKey = cellKey(x, y);
+        int cell = cells.find(cellKey);
+        int best = -1;
+        long bestKey = 0;
+        double bestG = Double.POSITIVE_INFINITY;
+        // any expanded holder one move away, not only those one move back
+        // from this point: the node held the cell first, and moves from
+        // them to other points in it were turned away
+        long col = cellKey >> 32, row = (int) cellKey;
+        for (long dc = -REPAIR_CELLS; dc <= REPAIR_CELLS; dc++) {
+            for (long dr = -REPAIR_CELLS; dr <= REPAIR_CELLS; dr++) {
+                int from = cells.find(((col + dc) << 32) | ((row + dr) & 0xFFFFFFFFL));
+                if (from < 0 || from >= holder.length) continue;
+                int pred = holder[from] - 1;
+                if (pred < 0 || !expanded.get(pred) || nodes.g(pred) + 1 >= bestG) continue;
+                double px = x(pred), py = y(pred);
+                for (int dir = 0; dir < Lattice.DIRECTIONS; dir++) {
+                    long next = Lattice.neighbour(px, py, dir);
+                    double nx = Lattice.lng(next), ny = Lattice.lat(next);
+                    if (cellKey(nx, ny) != cellKey || !bounds.contains(nx, ny)) continue;
+                    if (blocked(px, py, nx, ny)) continue;
+                    best = pred;
+                    bestKey = next;
+                    bestG = nodes.g(pred) + 1;
+                    break;
+                }
+            }
+        }
+
+        holder[cell] = 0;
+        if (best < 0) return;
+        int repaired = nodes.getOrAdd(bestKey);
+        if (expanded.get(repaired) && nodes.g(repaired) <= bestG) {
+            // already reached as cheaply, over moves all checked
+            holder[cell] = repaired + 1;
+            return;
+        }
+        // otherwise its g may rest on a move never checked, so it is
+        // reached over the checked one instead
+        take(cell, -1, repaired, best, bestG);
+        double nx = Lattice.lng(bestKey), ny = Lattice.lat(bestKey);
+        if (isCloseTo(nx, ny)) {
+            reachedGoal(repaired);
+        } else {
+            queue(repaired, nx, ny);
+        }
+    }
+
+    private boolean blocked(double x, double y, double nx, double ny) {
+        edgeChecks++;
+        return airspace.moveBlocked(x, y, nx, ny);
+    }
+
+    // Open and inconsistent nodes, queued again under the new weight
+    private void reopen() {
+        int[] queued = new int[open.size()];
+        for (int i = 0; i < queued.length; i++) queued[i] = open.poll();
+        for (int node : queued) inconsistent.set(node);
+        for (int node = inconsistent.nextSetBit(0); node >= 0;
+             node = inconsistent.nextSetBit(node + 1)) {
+            open.push(node, nodes.g(node) + weight * h[node]);
+        }
+        inconsistent.clear();
+        nodes.clearClosed();
+    }
+
+    // Weight, or better: no open or inconsistent node can reach the goal
+    // in fewer than their g + h moves
+    private void updateBound() {
+        double lowest = Double.POSITIVE_INFINITY;
+        int[] queued = new int[open.size()];
+        for (int i = 0; i < queued.length; i++) {
+            int node = open.poll();
+            queued[i] = node;
+            lowest = Math.min(lowest, nodes.g(node) + h[node]);
+        }
+        for (int node : queued) open.push(node, nodes.g(node) + weight * h[node]);
+        for (int node = inconsistent.nextSetBit(0); node >= 0;
+             node = inconsistent.nextSetBit(node + 1)) {
+            lowest = Math.min(lowest, nodes.g(node) + h[node]);
+        }
+        double found = nodes.g(goalNode);
+        bound = Math.max(1.0, Math.min(weight, found / Math.min(found, lowest)));
+    }
+
+    // before a route is found, no open node is pruned
+    private double goalG() {
+        return goalNode < 0 ? Double.POSITIVE_INFINITY : nodes.g(goalNode);
+    }
+
+    private double h(int node, double x, double y) {
+        if (node >= h.length) {
+            h = Arrays.copyOf(h, Math.max(node + 1, h.length * 2));
+        }
+        h[node] = heuristic.applyAsDouble(x, y);
+        return h[node];
+    }
+
+    private double x(int node) {
+        return node == 0 ? start.lng() : Lattice.lng(nodes.key(node));
+    }
+
+    private double y(int node) {
+        return node == 0 ? start.lat() : Lattice.lat(nodes.key(node));
+    }
+
+    private static long cellKey(double x, double y) {
+        double size = CELL_STEPS * Lattice.STEP;
+        long col = (long) Math.floor(x / size);
+        long row = (long) Math.floor(y / size);
+        return (col << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    private boolean isCloseTo(double x, double y) {
+        return Math.hypot(x - goal.lng(), y - goal.lat()) < closeThreshold;
+    }
+
+    public boolean budgetSpent() {
+        return expansions >= bounds.maxExpansions();
+    }
+
+    /** Search state, to walk the route back from goalNode */
+    public NodeTable nodes() {
+        return nodes;
+    }
+
+    /** @return the node the route ends at, or -1 if none was found */
+    public int goalNode() {
+        return goalNode;
+    }
+
+    /**
+     * @return how many times longer than the fewest moves over the nodes
+     * kept the route may be
+     */
+    public double bound() {
+        return bound;
+    }
+
+    public int expansions() {
+        return expansions;
+    }
+
+    /** @return moves checked against the regions */
+    public int edgeChecks() {
+        return edgeChecks;
+    }
+
+    public int passes() {
+        return passes;
+    }
+}
@@ -0,0 +1,342 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Bidirectional A* over the flight lattice. One frontier grows from the
+ * start towards the goal, the other from the goal back towards the start,
+ * and both order their nodes by g + weight * h, h being the fewest moves
+ * along the 16 headings to the other end. The two frontiers sit on
+ * differently offset lattices, so they never share a node; instead they
+ * meet when a node of one comes within half the close-to distance of a
+ * node of the other. The rest of the route is then flown by replaying the
+ * backward moves from the forward node, which shifts them by less than
+ * that and so still ends close to the goal.
+ *
+ * Each meeting, and each forward node close to the goal, gives a route;
+ * the search keeps the shortest and stops once it is no longer than the
+ * smallest g + weight * h left in either frontier. Any route not yet found
+ * has a node in both, so the route kept is never more than weight times
+ * the fewest moves over these nodes. As in AnytimeSearch, each half-STEP
+ * cell holds one node per frontier. Given SearchBounds, neither frontier
+ * leaves the box and the two together expand at most maxExpansions nodes.
+ */
+public class BidirectionalSearch {
+    // Side of the cells that hold one node each, in STEPs
+    private static final double CELL_STEPS = 0.5;
+    // Only look for interrupts every this many expansions
+    private static final int CHECK_EVERY = 256;
+
+    private final RestrictedAirspace airspace;
+    private final Position start;
+    private final Position goal;
+    private final double closeThreshold;
+    private final double meetDistance;
+    private final double weight;
+    private final Frontier forward;
+    private final Frontier backward;
+    private final SearchBounds bounds;
+    private List<Position> best;
+    private int expansions;
+
+    /**
+     * Nodes grown from one end of the leg, plus buckets of meetDistance
+     * size so the other frontier can find nodes near a point.
+     */
+    private final class Frontier {
+        final Position root;
+        final Position target;
+        // moves the route saves by ending this far from target
+        final double targetSlack;
+        final NodeTable nodes = new NodeTable();
+        final OpenSet open = new OpenSet();
+        // cell key -> id + 1 of the node holding it, through holder[]
+        final NodeTable cells = new NodeTable();
+        int[] holder = new int[1024];
+        final NodeTable buckets = new NodeTable();
+        int[] bucketHead = new int[64];
+        int[] nextInBucket = new int[64];
+
+        Frontier(Position root, Position target, double targetDistance) {
+            this.root = root;
+            this.target = target;
+            this.targetSlack = Lattice.MAX_DETOUR * targetDistance / Lattice.STEP;
+            int node = add(Lattice.key(root));
+            nodes.setG(node, 0.0);
+            holder[cellOf(root.lng(), root.lat())] = node + 1;
+            open.push(node, weight * h(root.lng(), root.lat()));
+        }
+
+        // the root keeps its exact position, every other node sits on the
+        // lattice
+        double x(int node) {
+            return node == 0 ? root.lng() : Lattice.lng(nodes.key(node));
+        }
+
+        double y(int node) {
+            return node == 0 ? root.lat() : Lattice.lat(nodes.key(node));
+        }
+
+        // fewest whole moves still needed to come within targetSlack of
+        // the target
+        double h(double x, double y) {
+            double moves = Lattice.movesAtLeast(target.lng() - x, target.lat() - y);
+            return Math.max(0, Math.ceil(moves - targetSlack - 1e-9));
+        }
+
+        int add(long key) {
+            int node = nodes.find(key);
+            if (node >= 0) return node;
+            node = nodes.getOrAdd(key);
+
+            int bucket = buckets.getOrAdd(bucketKey(x(node), y(node)));
+            if (bucket >= bucketHead.length) {
+                bucketHead = Arrays.copyOf(bucketHead, bucketHead.length * 2);
+            }
+            if (node >= nextInBucket.length) {
+                nextInBucket = Arrays.copyOf(nextInBucket, nextInBucket.length * 2);
+            }
+            // heads are stored as node + 1 so 0 means empty
+            nextInBucket[node] = bucketHead[bucket] - 1;
+            bucketHead[bucket] = node + 1;
+            return node;
+        }
+
+        /**
+         * Relaxes the move from node from to the lattice point next
+         * @param blocked whether the move is blocked, checked only if it
+         *                would improve the cell
+         */
+        void relax(int from, long next, double nx, double ny, Move blocked) {
+            double newCost = nodes.g(from) + 1;
+            int cell = cellOf(nx, ny);
+            int held = holder[cell] - 1;
+            if (held >= 0 && newCost >= nodes.g(held)) return;
+            int node = nodes.find(next);
+            if (node >= 0 && newCost >= nodes.g(node)) return;
+            if (blocked.test(x(from), y(from), nx, ny)) return;
+
+            node = add(next);
+            // a cheaper node takes the cell; the old one keeps its own
+            // parent chain for meetings, but is not expanded again
+            if (held >= 0 && held != node) open.remove(held);
+            holder[cell] = node + 1;
+            nodes.setParent(node, from);
+            nodes.setG(node, newCost);
+            if (this == forward && isCloseTo(nx, ny, goal)) {
+                // the route ends at the first node close to the goal
+                offer(join(node, -1));
+            } else {
+                open.push(node, newCost + weight * h(nx, ny));
+            }
+        }
+
+        /** @return the node within meetDistance of (x, y) with the lowest g, or -1 */
+        int nodeNear(double x, double y) {
+            int col = (int) Math.floor(x / meetDistance);
+            int row = (int) Math.floor(y / meetDistance);
+            int cheapest = -1;
+            for (int r = row - 1; r <= row + 1; r++) {
+                for (int c = col - 1; c <= col + 1; c++) {
+                    int bucket = buckets.find(pack(c, r));
+                    if (bucket < 0) continue;
+                    for (int node = bucketHead[bucket] - 1; node >= 0;
+                         node = nextInBucket[node]) {
+                        if (nodes.g(node) == Double.POSITIVE_INFINITY) continue;
+                        if (cheapest >= 0 && nodes.g(node) >= nodes.g(cheapest)) continue;
+                        if (Math.hypot(x(node) - x, y(node) - y) < meetDistance) {
+                            cheapest = node;
+                        }
+                    }
+                }
+            }
+            return cheapest;
+        }
+
+        /** @return the smallest g + weight * h still open, +inf when none is */
+        double lowestF() {
+            return open.isEmpty() ? Double.POSITIVE_INFINITY : open.peekF();
+        }
+
+        int cellOf(double x, double y) {
+            int cell = cells.getOrAdd(cellKey(x, y));
+            if (cell >= holder.length) {
+                holder = Arrays.copyOf(holder, Math.max(cell + 1, holder.length * 2));
+            }
+            return cell;
+        }
+
+        long bucketKey(double x, double y) {
+            return pack((int) Math.floor(x / meetDistance),
+                    (int) Math.floor(y / meetDistance));
+        }
+    }
+
+    // A lattice move, from (x, y) to (nx, ny)
+    private interface Move {
+        boolean test(double x, double y, double nx, double ny);
+    }
+
+    public BidirectionalSearch(RestrictedAirspace airspace, Position start,
+                               Position goal, double closeThreshold) {
+        this(airspace, start, goal, closeThreshold, null);
+    }
+
+    /** @param bounds box and expansion budget, or null for none */
+    public BidirectionalSearch(RestrictedAirspace airspace, Position start,
+                               Position goal, double closeThreshold,
+                               SearchBounds bounds) {
+        this(airspace, start, goal, closeThreshold, bounds, 1.0);
+    }
+
+    /** @param weight on the heuristic; the route is within this of the fewest moves */
+    public BidirectionalSearch(RestrictedAirspace airspace, Position start,
+                               Position goal, double closeThreshold,
+                               SearchBounds bounds, double weight) {
+        this.airspace = airspace;
+        this.bounds = bounds;
+        this.start = start;
+        this.goal = goal;
+        this.closeThreshold = closeThreshold;
+        this.meetDistance = closeThreshold / 2;
+        this.weight = Math.max(1.0, weight);
+        this.forward = new Frontier(start, goal, closeThreshold);
+        // a backward node is joined from any forward node near it
+        this.backward = new Frontier(goal, start, meetDistance);
+    }
+
+    private static long pack(int col, int row) {
+        return ((long) col << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    private static long cellKey(double x, double y) {
+        double size = CELL_STEPS * Lattice.STEP;
+        long col = (long) Math.floor(x / size);
+        long row = (long) Math.floor(y / size);
+        return (col << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    private boolean isCloseTo(double x, double y, Position p) {
+        return Math.hypot(x - p.lng(), y - p.lat()) < closeThreshold;
+    }
+
+    /**
+     * @return positions from start to a point close to the goal, every step
+     * one lattice move, or null when there is no path (within the bounds)
+     */
+    public List<Position> search() {
+        if (isCloseTo(start.lng(), start.lat(), goal)) {
+            best = List.of(start);
+            return best;
+        }
+        while (!forward.open.isEmpty()) {
+            // no route left to find is shorter than the lowest f of either
+            // frontier; once the goal side is exhausted (e.g. the goal is
+            // enclosed) the forward search carries on alone
+            double lowest = Math.min(forward.lowestF(), backward.lowestF());
+            if (best != null && best.size() - 1 <= lowest) break;
+            if (budgetSpent()) return null;
+            if (++expansions % CHECK_EVERY == 0 && Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Search was interrupted");
+            }
+            // grow the smaller frontier, so both ends get equal effort
+            if (backward.open.isEmpty() || forward.open.size() <= backward.open.size()) {
+                expandForward();
+            } else {
+                expandBackward();
+            }
+        }
+        return best;
+    }
+
+    private void expandForward() {
+        int curr = forward.open.poll();
+        double x = forward.x(curr), y = forward.y(curr);
+        int other = backward.nodeNear(x, y);
+        if (other >= 0) offer(join(curr, other));
+
+        for (int dir = 0; dir < Lattice.DIRECTIONS; dir++) {
+            long next = Lattice.neighbour(x, y, dir);
+            double nx = Lattice.lng(next), ny = Lattice.lat(next);
+            if (bounds != null && !bounds.contains(nx, ny)) continue;
+            forward.relax(curr, next, nx, ny, airspace::moveBlocked);
+        }
+    }
+
+    private void expandBackward() {
+        int curr = backward.open.poll();
+        double x = backward.x(curr), y = backward.y(curr);
+        int other = forward.nodeNear(x, y);
+        if (other >= 0) offer(join(other, curr));
+
+        for (int dir = 0; dir < Lattice.DIRECTIONS; dir++) {
+            long next = Lattice.neighbour(x, y, dir);
+            double nx = Lattice.lng(next), ny = Lattice.lat(next);
+            if (bounds != null && !bounds.contains(nx, ny)) continue;
+            // the drone flies this edge the other way round
+            backward.relax(curr, next, nx, ny,
+                    (px, py, qx, qy) -> airspace.moveBlocked(qx, qy, px, py));
+        }
+    }
+
+    // Keeps route if it is the shortest yet
+    private void offer(List<Position> route) {
+        if (route != null && (best == null || route.size() < best.size())) best = route;
+    }
+
+    /**
+     * Forward route to node f, then the backward chain from node b replayed
+     * move by move from f (none if b is -1). Stops as soon as the goal is
+     * close.
+     * @return the joined route, or null if a replayed move is blocked or
+     * the replay does not end close to the goal
+     */
+    private List<Position> join(int f, int b) {
+        LinkedList<Position> head = new LinkedList<>();
+        for (int node = f; node > 0; node = forward.nodes.parent(node)) {
+            head.addFirst(Lattice.toPosition(forward.nodes.key(node)));
+        }
+        head.addFirst(start);
+        List<Position> path = new ArrayList<>(head);
+
+        double x = forward.x(f), y = forward.y(f);
+        for (int node = b; node > 0; node = backward.nodes.parent(node)) {
+            if (isCloseTo(x, y, goal)) return path;
+            int parent = backward.nodes.parent(node);
+            double angle = Math.toDegrees(Math.atan2(
+                    backward.y(parent) - backward.y(node),
+                    backward.x(parent) - backward.x(node)));
+            int dir = Math.floorMod((int) Math.round(
+                    angle / Lattice.ANGLE_CONSTRAINT), Lattice.DIRECTIONS);
+
+            long next = Lattice.neighbour(x, y, dir);
+            double nx = Lattice.lng(next), ny = Lattice.lat(next);
+            if (airspace.moveBlocked(x, y, nx, ny)) return null;
+            path.add(Lattice.toPosition(next));
+            x = nx;
+            y = ny;
+        }
+        return isCloseTo(x, y, goal) ? path : null;
+    }
+
+    public boolean budgetSpent() {
+        return bounds != null && expansions >= bounds.maxExpansions();
+    }
+
+    /**
+     * @return how many times longer than the fewest moves over the nodes
+     * kept the route may be
+     */
+    public double bound() {
+        return best == null ? Double.POSITIVE_INFINITY : best.size() == 1 ? 1.0 : weight;
+    }
+
+    public int expansions() {
+        return expansions;
+    }
+}
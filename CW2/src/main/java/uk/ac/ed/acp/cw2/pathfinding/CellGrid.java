@@ -0,0 +1,74 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+import java.util.List;
+
+/**
+ * Square cells over part of the plane, numbered row by row. Distance
+ * fields flooded for the same snapshot share one grid, so a cell number
+ * means the same place in all of them.
+ */
+public record CellGrid(double minX, double minY, double cellSize,
+                       int cols, int rows) {
+    // Grids above this many cells are not worth flooding
+    public static final int MAX_CELLS = 1 << 20;
+
+    /**
+     * @return a grid over the restricted regions and the given points with
+     * margin spare cells on every side, or null when it would be too large
+     */
+    public static CellGrid around(RestrictedAirspace airspace, List<Position> points,
+                                  double cellSize, int margin) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (PreparedRegion region : airspace.preparedRegions()) {
+            minX = Math.min(minX, region.minX());
+            minY = Math.min(minY, region.minY());
+            maxX = Math.max(maxX, region.maxX());
+            maxY = Math.max(maxY, region.maxY());
+        }
+        for (Position p : points) {
+            minX = Math.min(minX, p.lng());
+            minY = Math.min(minY, p.lat());
+            maxX = Math.max(maxX, p.lng());
+            maxY = Math.max(maxY, p.lat());
+        }
+        if (minX > maxX) return null;
+
+        int cols = (int) Math.ceil((maxX - minX) / cellSize) + 2 * margin + 1;
+        int rows = (int) Math.ceil((maxY - minY) / cellSize) + 2 * margin + 1;
+        if ((long) cols * rows > MAX_CELLS) return null;
+        return new CellGrid(minX - margin * cellSize, minY - margin * cellSize,
+                cellSize, cols, rows);
+    }
+
+    /** @return true if the area of other lies within this grid, at the same cell size */
+    public boolean covers(CellGrid other) {
+        return other.cellSize == cellSize
+                && other.minX >= minX && other.minY >= minY
+                && other.minX + other.cols * cellSize <= minX + cols * cellSize
+                && other.minY + other.rows * cellSize <= minY + rows * cellSize;
+    }
+
+    public int cellCount() {
+        return cols * rows;
+    }
+
+    /** @return the cell holding (x, y), or -1 outside the grid */
+    public int cellAt(double x, double y) {
+        int c = (int) Math.floor((x - minX) / cellSize);
+        int r = (int) Math.floor((y - minY) / cellSize);
+        if (c < 0 || r < 0 || c >= cols || r >= rows) return -1;
+        return r * cols + c;
+    }
+
+    public double centreX(int cell) {
+        return minX + (cell % cols + 0.5) * cellSize;
+    }
+
+    public double centreY(int cell) {
+        return minY + (cell / cols + 0.5) * cellSize;
+    }
+}
@@ -0,0 +1,339 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Abstract graph for hierarchical (HPA*) planning. The plane is cut into
+ * STEP-sized cells and the cells into square clusters. Neighbouring
+ * clusters are joined at entrances, one or two per run of open cells along
+ * their shared border, and each cluster keeps the cell distances between
+ * its own entrances. Clusters are built on first use and kept for the life
+ * of the airspace, so later legs over the same area only pay for the
+ * abstract search.
+ */
+public class ClusterGraph {
+    public static final int CLUSTER_CELLS = 16;
+    // Runs of open border cells at least this long get an entrance at each
+    // end instead of one in the middle
+    private static final int LONG_RUN = 6;
+    // Abstract searches stay within this many clusters of the leg and the
+    // regions, so an unreachable goal cannot flood the plane
+    private static final int MARGIN = 2;
+    private static final double DIAGONAL = Math.sqrt(2);
+    private static final int[] CELL_DI = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] CELL_DJ = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    private final RestrictedAirspace airspace;
+    private final double cellSize;
+    // cluster bounds of all restricted regions, empty when there are none
+    private final int regionMinX;
+    private final int regionMinY;
+    private final int regionMaxX;
+    private final int regionMaxY;
+    private final Map<Long, Cluster> clusters = new ConcurrentHashMap<>();
+
+    /**
+     * One built cluster: which of its cells are free, its entrance cells,
+     * the cells they connect to across the border, and the distance from
+     * entrance a to entrance b at distances[a * n + b] (infinite when the
+     * two are not connected inside the cluster).
+     */
+    private record Cluster(boolean[] free, long[] entrances,
+                           long[][] partners, double[] distances) {}
+
+    public ClusterGraph(RestrictedAirspace airspace, double cellSize) {
+        this.airspace = airspace;
+        this.cellSize = cellSize;
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (PreparedRegion region : airspace.preparedRegions()) {
+            minX = Math.min(minX, clusterOf(cell(region.minX())));
+            minY = Math.min(minY, clusterOf(cell(region.minY())));
+            maxX = Math.max(maxX, clusterOf(cell(region.maxX())));
+            maxY = Math.max(maxY, clusterOf(cell(region.maxY())));
+        }
+        this.regionMinX = minX;
+        this.regionMinY = minY;
+        this.regionMaxX = maxX;
+        this.regionMaxY = maxY;
+    }
+
+    // --------------------- cells ---------------------
+
+    private static long pack(int i, int j) {
+        return ((long) i << 32) | (j & 0xFFFFFFFFL);
+    }
+
+    private static int cellI(long cell) {
+        return (int) (cell >> 32);
+    }
+
+    private static int cellJ(long cell) {
+        return (int) cell;
+    }
+
+    private static int clusterOf(int cellIndex) {
+        return Math.floorDiv(cellIndex, CLUSTER_CELLS);
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private double centre(int cellIndex) {
+        return (cellIndex + 0.5) * cellSize;
+    }
+
+    private boolean cellFree(int i, int j) {
+        return !airspace.pointBlocked(centre(i), centre(j));
+    }
+
+    // The straight move between two cell centres is clear
+    private boolean stepOpen(int i, int j, int ni, int nj) {
+        return !airspace.moveBlocked(centre(i), centre(j), centre(ni), centre(nj));
+    }
+
+    // Octile distance in cells, exact for 8-connected moves on open ground
+    private static double octile(long a, long b) {
+        int di = Math.abs(cellI(a) - cellI(b));
+        int dj = Math.abs(cellJ(a) - cellJ(b));
+        return Math.max(di, dj) + (DIAGONAL - 1) * Math.min(di, dj);
+    }
+
+    // --------------------- clusters ---------------------
+
+    private Cluster cluster(int cx, int cy) {
+        return clusters.computeIfAbsent(pack(cx, cy), k -> buildCluster(cx, cy));
+    }
+
+    private Cluster buildCluster(int cx, int cy) {
+        int i0 = cx * CLUSTER_CELLS, j0 = cy * CLUSTER_CELLS;
+        boolean[] free = new boolean[CLUSTER_CELLS * CLUSTER_CELLS];
+        for (int dj = 0; dj < CLUSTER_CELLS; dj++) {
+            for (int di = 0; di < CLUSTER_CELLS; di++) {
+                free[dj * CLUSTER_CELLS + di] = cellFree(i0 + di, j0 + dj);
+            }
+        }
+
+        // entrance cell -> cells it joins in the neighbouring clusters
+        Map<Long, List<Long>> found = new LinkedHashMap<>();
+        scanBorder(i0 + CLUSTER_CELLS - 1, j0, 0, 1, 1, 0, free, i0, j0, found);
+        scanBorder(i0, j0, 0, 1, -1, 0, free, i0, j0, found);
+        scanBorder(i0, j0 + CLUSTER_CELLS - 1, 1, 0, 0, 1, free, i0, j0, found);
+        scanBorder(i0, j0, 1, 0, 0, -1, free, i0, j0, found);
+
+        int n = found.size();
+        long[] entrances = new long[n];
+        long[][] partners = new long[n][];
+        int e = 0;
+        for (Map.Entry<Long, List<Long>> entry : found.entrySet()) {
+            entrances[e] = entry.getKey();
+            partners[e] = entry.getValue().stream().mapToLong(Long::longValue).toArray();
+            e++;
+        }
+
+        double[] distances = new double[n * n];
+        for (int a = 0; a < n; a++) {
+            double[] dist = cellDistances(cx, cy, free, entrances[a]);
+            for (int b = 0; b < n; b++) {
+                distances[a * n + b] = dist[local(entrances[b], i0, j0)];
+            }
+        }
+        return new Cluster(free, entrances, partners, distances);
+    }
+
+    /**
+     * Walks one border of the cluster from (i, j) along (stepI, stepJ). A
+     * border cell is open when it, the cell beyond it at (outI, outJ), and
+     * the move between them are all free; each maximal run of open cells
+     * becomes one entrance in its middle, or one at each end if it is long.
+     */
+    private void scanBorder(int i, int j, int stepI, int stepJ, int outI, int outJ,
+                            boolean[] free, int i0, int j0,
+                            Map<Long, List<Long>> found) {
+        int runStart = -1;
+        for (int t = 0; t <= CLUSTER_CELLS; t++) {
+            int bi = i + t * stepI, bj = j + t * stepJ;
+            boolean open = t < CLUSTER_CELLS
+                    && free[local(pack(bi, bj), i0, j0)]
+                    && cellFree(bi + outI, bj + outJ)
+                    && stepOpen(bi, bj, bi + outI, bj + outJ);
+            if (open && runStart < 0) runStart = t;
+            if (open || runStart < 0) continue;
+
+            int runEnd = t - 1;
+            if (runEnd - runStart + 1 >= LONG_RUN) {
+                addEntrance(i, j, stepI, stepJ, outI, outJ, runStart, found);
+                addEntrance(i, j, stepI, stepJ, outI, outJ, runEnd, found);
+            } else {
+                addEntrance(i, j, stepI, stepJ, outI, outJ,
+                        (runStart + runEnd) / 2, found);
+            }
+            runStart = -1;
+        }
+    }
+
+    private static void addEntrance(int i, int j, int stepI, int stepJ,
+                                    int outI, int outJ, int t,
+                                    Map<Long, List<Long>> found) {
+        int bi = i + t * stepI, bj = j + t * stepJ;
+        found.computeIfAbsent(pack(bi, bj), k -> new ArrayList<>())
+                .add(pack(bi + outI, bj + outJ));
+    }
+
+    private static int local(long cell, int i0, int j0) {
+        return (cellJ(cell) - j0) * CLUSTER_CELLS + (cellI(cell) - i0);
+    }
+
+    /**
+     * Dijkstra over the free cells of one cluster, 8-connected. The source
+     * itself may be blocked (a leg can start right by a region edge).
+     * @return distance in cells from source to every cell of the cluster
+     */
+    private double[] cellDistances(int cx, int cy, boolean[] free, long source) {
+        int i0 = cx * CLUSTER_CELLS, j0 = cy * CLUSTER_CELLS;
+        double[] dist = new double[CLUSTER_CELLS * CLUSTER_CELLS];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        OpenSet q = new OpenSet();
+        int s = local(source, i0, j0);
+        dist[s] = 0;
+        q.push(s, 0);
+
+        while (!q.isEmpty()) {
+            int curr = q.poll();
+            int ci = i0 + curr % CLUSTER_CELLS, cj = j0 + curr / CLUSTER_CELLS;
+            for (int dir = 0; dir < CELL_DI.length; dir++) {
+                int ni = ci + CELL_DI[dir], nj = cj + CELL_DJ[dir];
+                if (ni < i0 || nj < j0 || ni >= i0 + CLUSTER_CELLS
+                        || nj >= j0 + CLUSTER_CELLS) continue;
+                int next = (nj - j0) * CLUSTER_CELLS + (ni - i0);
+                double newCost = dist[curr] + (dir % 2 == 0 ? 1 : DIAGONAL);
+                if (!free[next] || newCost >= dist[next]) continue;
+                if (!stepOpen(ci, cj, ni, nj)) continue;
+                dist[next] = newCost;
+                q.push(next, newCost);
+            }
+        }
+        return dist;
+    }
+
+    // --------------------- abstract search ---------------------
+
+    /**
+     * A* over the cluster graph from the cell of start to the cell of goal.
+     * @return centres of the cells the abstract route passes through,
+     * excluding the start and goal cells, or null when the cluster graph
+     * has no route (for example through a gap narrower than a cell)
+     */
+    public List<Position> waypoints(Position start, Position goal) {
+        long startCell = pack(cell(start.lng()), cell(start.lat()));
+        long goalCell = pack(cell(goal.lng()), cell(goal.lat()));
+        if (startCell == goalCell) return new ArrayList<>();
+
+        int sx = clusterOf(cellI(startCell)), sy = clusterOf(cellJ(startCell));
+        int gx = clusterOf(cellI(goalCell)), gy = clusterOf(cellJ(goalCell));
+        int minX = Math.min(Math.min(sx, gx), regionMinX) - MARGIN;
+        int minY = Math.min(Math.min(sy, gy), regionMinY) - MARGIN;
+        int maxX = Math.max(Math.max(sx, gx), regionMaxX) + MARGIN;
+        int maxY = Math.max(Math.max(sy, gy), regionMaxY) + MARGIN;
+
+        Cluster startCluster = cluster(sx, sy);
+        Cluster goalCluster = cluster(gx, gy);
+        double[] fromStart = cellDistances(sx, sy, startCluster.free(), startCell);
+        double[] toGoal = cellDistances(gx, gy, goalCluster.free(), goalCell);
+        int gi0 = gx * CLUSTER_CELLS, gj0 = gy * CLUSTER_CELLS;
+
+        NodeTable nodes = new NodeTable();
+        OpenSet q = new OpenSet();
+        int startNode = nodes.getOrAdd(startCell);
+        nodes.setG(startNode, 0.0);
+        q.push(startNode, octile(startCell, goalCell));
+
+        while (!q.isEmpty()) {
+            int curr = q.poll();
+            long cell = nodes.key(curr);
+            if (cell == goalCell) return toCentres(nodes, curr);
+            nodes.close(curr);
+
+            int cx = clusterOf(cellI(cell)), cy = clusterOf(cellJ(cell));
+            Cluster cluster = cluster(cx, cy);
+            int i0 = cx * CLUSTER_CELLS, j0 = cy * CLUSTER_CELLS;
+
+            // the start cell reaches its cluster's entrances (and the goal,
+            // if it shares the cluster) through the start-side Dijkstra
+            if (curr == startNode) {
+                for (long entrance : cluster.entrances()) {
+                    relax(nodes, q, curr, entrance,
+                            fromStart[local(entrance, i0, j0)], goalCell);
+                }
+                if (cx == gx && cy == gy) {
+                    relax(nodes, q, curr, goalCell,
+                            fromStart[local(goalCell, i0, j0)], goalCell);
+                }
+            }
+
+            int e = indexOf(cluster.entrances(), cell);
+            if (e < 0) continue;
+            int n = cluster.entrances().length;
+            for (int b = 0; b < n; b++) {
+                if (b != e) {
+                    relax(nodes, q, curr, cluster.entrances()[b],
+                            cluster.distances()[e * n + b], goalCell);
+                }
+            }
+            for (long partner : cluster.partners()[e]) {
+                int px = clusterOf(cellI(partner)), py = clusterOf(cellJ(partner));
+                if (px < minX || py < minY || px > maxX || py > maxY) continue;
+                relax(nodes, q, curr, partner, 1.0, goalCell);
+            }
+            if (cx == gx && cy == gy) {
+                relax(nodes, q, curr, goalCell,
+                        toGoal[local(cell, gi0, gj0)], goalCell);
+            }
+        }
+        return null;
+    }
+
+    private static void relax(NodeTable nodes, OpenSet q, int curr, long cell,
+                              double cost, long goalCell) {
+        if (Double.isInfinite(cost)) return;
+        int next = nodes.find(cell);
+        if (next >= 0 && nodes.isClosed(next)) return;
+
+        double newCost = nodes.g(curr) + cost;
+        if (next < 0 || newCost < nodes.g(next)) {
+            if (next < 0) next = nodes.getOrAdd(cell);
+            nodes.setParent(next, curr);
+            nodes.setG(next, newCost);
+            q.push(next, newCost + octile(cell, goalCell));
+        }
+    }
+
+    private static int indexOf(long[] cells, long cell) {
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == cell) return i;
+        }
+        return -1;
+    }
+
+    private List<Position> toCentres(NodeTable nodes, int goalNode) {
+        LinkedList<Position> centres = new LinkedList<>();
+        int current = nodes.parent(goalNode);
+        while (current >= 0 && nodes.parent(current) >= 0) {
+            long cell = nodes.key(current);
+            centres.addFirst(new Position(centre(cellI(cell)), centre(cellJ(cell))));
+            current = nodes.parent(current);
+        }
+        return new ArrayList<>(centres);
+    }
+}
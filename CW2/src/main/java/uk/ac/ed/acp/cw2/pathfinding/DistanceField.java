@@ -0,0 +1,260 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Obstacle-aware distance, in moves, from one source to every cell of a
+ * {@link CellGrid}. Filled by Dijkstra over 16-connected cell moves (the 8
+ * king moves and the 8 knight moves), which point within a few degrees of
+ * the 16 flight directions. A cell move is only blocked if every move
+ * parallel to it and within half a cell of it is, so a gap between regions
+ * a flight can get through, however narrow, is never closed.
+ * Distances are kept as floats, one per cell.
+ *
+ * When regions are added or removed, a field is repaired rather than
+ * flooded again: LPA*, the fixed-source core of D* Lite, rechecks only
+ * the cells with a move that may cross a changed region, and spreads the
+ * change from there to the cells whose distance it alters.
+ */
+public class DistanceField {
+    // 16 cell offsets in angle order, 0 degrees first
+    private static final int[] DC = {1, 2, 1, 1, 0, -1, -1, -2, -1, -2, -1, -1, 0, 1, 1, 2};
+    private static final int[] DR = {0, 1, 1, 2, 1, 2, 1, 1, 0, -1, -1, -2, -1, -2, -1, -1};
+
+    // Longest cell move, in cells along either axis, plus the half cell
+    // it is swept across to either side
+    private static final int REACH = 3;
+
+    /**
+     * Most a cell path can run over the straight line between two cell
+     * centres, halfway between a straight and a knight move: about 2.7%
+     */
+    public static final double MAX_DETOUR = 1 / Math.cos(Math.atan(0.5) / 2);
+
+    private final CellGrid grid;
+    private final float[] moves;
+    private final int source;
+    // cells settled to build this field
+    private final int settled;
+
+    private DistanceField(CellGrid grid, float[] moves, int source, int settled) {
+        this.grid = grid;
+        this.moves = moves;
+        this.source = source;
+        this.settled = settled;
+    }
+
+    /** Floods the grid from the cell holding source */
+    public static DistanceField flood(RestrictedAirspace airspace, CellGrid grid,
+                                      Position source) {
+        float[] moves = dijkstra(airspace, grid, source, null);
+        int settled = 0;
+        for (float m : moves) {
+            if (m != Float.POSITIVE_INFINITY) settled++;
+        }
+        return new DistanceField(grid, moves, grid.cellAt(source.lng(), source.lat()),
+                settled);
+    }
+
+    /**
+     * This field after the regions changed: the same distances a new flood
+     * over airspace would give, found by updating only the cells the change
+     * reaches. This field itself is left as it was.
+     * @param changed regions added or removed since this field was built
+     */
+    public DistanceField repair(RestrictedAirspace airspace, List<PreparedRegion> changed) {
+        float[] g = moves.clone();
+        if (source < 0 || changed.isEmpty()) {
+            return new DistanceField(grid, g, source, 0);
+        }
+        float[] rhs = g.clone();
+        double[] cost = moveCosts(grid);
+        OpenSet q = new OpenSet(1024);
+
+        // every move that may cross a changed region ends in one of these
+        for (PreparedRegion region : changed) {
+            int c0 = Math.max(0, col(region.minX()) - REACH);
+            int c1 = Math.min(grid.cols() - 1, col(region.maxX()) + REACH);
+            int r0 = Math.max(0, row(region.minY()) - REACH);
+            int r1 = Math.min(grid.rows() - 1, row(region.maxY()) + REACH);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    update(airspace, r * grid.cols() + c, g, rhs, cost, q);
+                }
+            }
+        }
+
+        int settled = 0;
+        while (!q.isEmpty()) {
+            int curr = q.poll();
+            settled++;
+            if (g[curr] > rhs[curr]) {
+                // shorter now: settle it and offer it to the cells after it
+                g[curr] = rhs[curr];
+            } else {
+                // longer now, or cut off: look again from its other cells
+                g[curr] = Float.POSITIVE_INFINITY;
+                update(airspace, curr, g, rhs, cost, q);
+            }
+            int c = curr % grid.cols(), r = curr / grid.cols();
+            for (int d = 0; d < DC.length; d++) {
+                int nc = c + DC[d], nr = r + DR[d];
+                if (nc < 0 || nr < 0 || nc >= grid.cols() || nr >= grid.rows()) continue;
+                update(airspace, nr * grid.cols() + nc, g, rhs, cost, q);
+            }
+        }
+        return new DistanceField(grid, g, source, settled);
+    }
+
+    // Best move into cell from the cells around it; queued if that no
+    // longer matches its distance
+    private void update(RestrictedAirspace airspace, int cell, float[] g, float[] rhs,
+                        double[] cost, OpenSet q) {
+        if (cell != source) {
+            int c = cell % grid.cols(), r = cell / grid.cols();
+            double x = grid.centreX(cell), y = grid.centreY(cell);
+            double best = Double.POSITIVE_INFINITY;
+            for (int d = 0; d < DC.length; d++) {
+                // the move from (c - dc, r - dr) in direction d ends here
+                int pc = c - DC[d], pr = r - DR[d];
+                if (pc < 0 || pr < 0 || pc >= grid.cols() || pr >= grid.rows()) continue;
+                int from = pr * grid.cols() + pc;
+                double via = g[from] + cost[d];
+                if (via >= best) continue;
+                if (moveBlocked(airspace, grid, grid.centreX(from), grid.centreY(from), x, y)) {
+                    continue;
+                }
+                best = via;
+            }
+            rhs[cell] = (float) best;
+        }
+        if (g[cell] != rhs[cell]) {
+            q.push(cell, Math.min(g[cell], rhs[cell]));
+        } else {
+            q.remove(cell);
+        }
+    }
+
+    // Blocked only if no parallel move within half a cell gets through
+    private static boolean moveBlocked(RestrictedAirspace airspace, CellGrid grid,
+                                       double x, double y, double nx, double ny) {
+        return airspace.sweptMoveBlocked(x, y, nx, ny, grid.cellSize() / 2);
+    }
+
+    private int col(double x) {
+        return (int) Math.floor((x - grid.minX()) / grid.cellSize());
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - grid.minY()) / grid.cellSize());
+    }
+
+    // Fixed cost of each offset, in STEPs
+    private static double[] moveCosts(CellGrid grid) {
+        double cellMoves = grid.cellSize() / Lattice.STEP;
+        double[] cost = new double[DC.length];
+        for (int d = 0; d < DC.length; d++) {
+            cost[d] = Math.hypot(DC[d], DR[d]) * cellMoves;
+        }
+        return cost;
+    }
+
+    /**
+     * Multi-target search: floods from source only until every target cell
+     * is settled (cells off the grid, -1, are ignored).
+     * @return moves from source to each target, +inf if cut off, NaN if the
+     * source or that target is off the grid
+     */
+    public static double[] movesTo(RestrictedAirspace airspace, CellGrid grid,
+                                   Position source, int[] targets) {
+        float[] moves = dijkstra(airspace, grid, source, targets);
+        double[] result = new double[targets.length];
+        boolean sourceOnGrid = grid.cellAt(source.lng(), source.lat()) >= 0;
+        for (int i = 0; i < targets.length; i++) {
+            result[i] = targets[i] < 0 || !sourceOnGrid ?
+                    Double.NaN : moves[targets[i]];
+        }
+        return result;
+    }
+
+    // Dijkstra from the cell holding source; stops early once all targets
+    // are settled, or floods everything when targets is null
+    private static float[] dijkstra(RestrictedAirspace airspace, CellGrid grid,
+                                    Position source, int[] targets) {
+        float[] moves = new float[grid.cellCount()];
+        Arrays.fill(moves, Float.POSITIVE_INFINITY);
+        int first = grid.cellAt(source.lng(), source.lat());
+        if (first < 0) return moves;
+
+        int[] pending = targets == null ? null : Arrays.stream(targets)
+                .filter(cell -> cell >= 0).distinct().sorted().toArray();
+        boolean[] settled = pending == null ? null : new boolean[pending.length];
+        int remaining = pending == null ? -1 : pending.length;
+
+        double[] cost = moveCosts(grid);
+
+        OpenSet q = new OpenSet(targets == null ? grid.cellCount() : 1024);
+        moves[first] = 0;
+        q.push(first, 0);
+        while (!q.isEmpty() && remaining != 0) {
+            int curr = q.poll();
+            int target = pending == null ? -1 : Arrays.binarySearch(pending, curr);
+            if (target >= 0 && !settled[target]) {
+                settled[target] = true;
+                remaining--;
+            }
+            int c = curr % grid.cols(), r = curr / grid.cols();
+            double x = grid.centreX(curr), y = grid.centreY(curr);
+            for (int d = 0; d < DC.length; d++) {
+                int nc = c + DC[d], nr = r + DR[d];
+                if (nc < 0 || nr < 0 || nc >= grid.cols() || nr >= grid.rows()) continue;
+                int next = nr * grid.cols() + nc;
+                double newCost = moves[curr] + cost[d];
+                if (newCost >= moves[next]) continue;
+                if (moveBlocked(airspace, grid, x, y,
+                        grid.centreX(next), grid.centreY(next))) continue;
+                moves[next] = (float) newCost;
+                q.push(next, newCost);
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Fewest lattice moves between two points whose cells are cellMoves
+     * apart. In open air a flight of m moves spans at most m STEPs, the
+     * centres of its end cells at most half a cell diagonal more at each
+     * end, and the cell path between those centres at most MAX_DETOUR
+     * times that. Near the regions a cell move is only blocked where every
+     * flight alongside it is, which the tests check around narrow gaps.
+     * @param cellSize side of the grid's cells, in degrees
+     */
+    public static double latticeMovesAtLeast(double cellMoves, double cellSize) {
+        double rounding = Math.sqrt(2) * cellSize / Lattice.STEP;
+        return Math.max(0, cellMoves / MAX_DETOUR - rounding);
+    }
+
+    public CellGrid grid() {
+        return grid;
+    }
+
+    /** @return cells settled by the flood or repair that built this field */
+    public int settledCells() {
+        return settled;
+    }
+
+    /** @return moves from the source to cell, +inf if it cannot be reached */
+    public double moves(int cell) {
+        return moves[cell];
+    }
+
+    /** @return moves from the source to (x, y), or NaN outside the grid */
+    public double movesTo(double x, double y) {
+        int cell = grid.cellAt(x, y);
+        return cell < 0 ? Double.NaN : moves[cell];
+    }
+}
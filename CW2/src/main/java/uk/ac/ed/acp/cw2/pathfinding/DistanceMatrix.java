@@ -0,0 +1,109 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Obstacle-aware move counts between every pair of stops in one batch (a
+ * service point and its deliveries). Each row is one multi-target search
+ * over a shared {@link CellGrid} that stops as soon as every other stop is
+ * settled, and rows are searched in parallel. Pairs the grid cannot answer
+ * keep the straight-line count.
+ */
+public class DistanceMatrix {
+    // Spare cells around the regions and stops
+    private static final int MARGIN = 16;
+
+    private final List<Position> stops;
+    private final Map<Position, Integer> index = new HashMap<>();
+    private final int size;
+    // moves[from * size + to]
+    private final double[] moves;
+
+    private DistanceMatrix(List<Position> stops, double[] moves) {
+        this.stops = List.copyOf(stops);
+        this.size = stops.size();
+        this.moves = moves;
+        for (int i = 0; i < size; i++) index.putIfAbsent(stops.get(i), i);
+    }
+
+    /** Searches around the regions; straight lines where the grid cannot */
+    public static DistanceMatrix build(RestrictedAirspace airspace, List<Position> stops) {
+        int n = stops.size();
+        double[] moves = straightLineMoves(stops);
+        CellGrid grid = CellGrid.around(airspace, stops, Lattice.STEP, MARGIN);
+        if (grid == null) return new DistanceMatrix(stops, moves);
+
+        int[] cells = stops.stream()
+                .mapToInt(stop -> grid.cellAt(stop.lng(), stop.lat()))
+                .toArray();
+        IntStream.range(0, n).parallel().forEach(from -> {
+            double[] row = DistanceField.movesTo(airspace, grid, stops.get(from), cells);
+            for (int to = 0; to < n; to++) {
+                // NaN: off the grid; +inf: the cell rounding cut it off
+                if (to != from && Double.isFinite(row[to])) {
+                    moves[from * n + to] = row[to];
+                }
+            }
+        });
+        return new DistanceMatrix(stops, moves);
+    }
+
+    /** Straight-line move counts only */
+    public static DistanceMatrix straightLine(List<Position> stops) {
+        return new DistanceMatrix(stops, straightLineMoves(stops));
+    }
+
+    private static double[] straightLineMoves(List<Position> stops) {
+        int n = stops.size();
+        double[] moves = new double[n * n];
+        for (int from = 0; from < n; from++) {
+            for (int to = 0; to < n; to++) {
+                Position a = stops.get(from), b = stops.get(to);
+                moves[from * n + to] =
+                        Math.hypot(b.lng() - a.lng(), b.lat() - a.lat()) / Lattice.STEP;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * @param picked stop indices of this matrix
+     * @return the moves between just those stops, in the given order
+     */
+    public DistanceMatrix subset(int[] picked) {
+        int n = picked.length;
+        List<Position> subStops = new ArrayList<>(n);
+        double[] subMoves = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            subStops.add(stops.get(picked[i]));
+            for (int j = 0; j < n; j++) {
+                subMoves[i * n + j] = moves(picked[i], picked[j]);
+            }
+        }
+        return new DistanceMatrix(subStops, subMoves);
+    }
+
+    public List<Position> stops() {
+        return stops;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double moves(int from, int to) {
+        return moves[from * size + to];
+    }
+
+    /** @return moves between two stops, or NaN if either is not a stop */
+    public double moves(Position from, Position to) {
+        Integer i = index.get(from), j = index.get(to);
+        return i == null || j == null ? Double.NaN : moves(i, j);
+    }
+}
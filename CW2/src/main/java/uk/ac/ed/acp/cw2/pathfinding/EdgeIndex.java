@@ -0,0 +1,223 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Uniform-grid buckets over the edges of all restricted regions. A move is
+ * only tested against the edges filed under the buckets its bounding box
+ * covers, so far-away regions cost nothing. Buckets are stored CSR-style:
+ * edges of bucket b are bucketEdges[bucketStart[b] .. bucketStart[b+1]).
+ */
+public class EdgeIndex {
+    // Buckets are a few moves wide so one move rarely spans more than one
+    private static final double MIN_BUCKET_SIZE = 8 * Lattice.STEP;
+    private static final int MAX_BUCKETS = 1 << 20;
+    private static final double PAD = 1e-9;
+
+    // edge i runs from (ax[i], ay[i]) to (bx[i], by[i])
+    private final double[] ax;
+    private final double[] ay;
+    private final double[] bx;
+    private final double[] by;
+
+    private final double minX;
+    private final double minY;
+    private final double bucketSize;
+    private final int cols;
+    private final int rows;
+    private final int[] bucketStart;
+    private final int[] bucketEdges;
+
+    public EdgeIndex(List<PreparedRegion> regions) {
+        int edgeCount = 0;
+        for (PreparedRegion region : regions) edgeCount += region.edgeCount();
+        ax = new double[edgeCount];
+        ay = new double[edgeCount];
+        bx = new double[edgeCount];
+        by = new double[edgeCount];
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        int e = 0;
+        for (PreparedRegion region : regions) {
+            for (int i = 0; i < region.edgeCount(); i++, e++) {
+                ax[e] = region.x(i);
+                ay[e] = region.y(i);
+                bx[e] = region.x(i + 1);
+                by[e] = region.y(i + 1);
+                minX = Math.min(minX, Math.min(ax[e], bx[e]));
+                minY = Math.min(minY, Math.min(ay[e], by[e]));
+                maxX = Math.max(maxX, Math.max(ax[e], bx[e]));
+                maxY = Math.max(maxY, Math.max(ay[e], by[e]));
+            }
+        }
+
+        if (edgeCount == 0) {
+            this.minX = this.minY = 0;
+            this.bucketSize = MIN_BUCKET_SIZE;
+            this.cols = this.rows = 0;
+            this.bucketStart = new int[1];
+            this.bucketEdges = new int[0];
+            return;
+        }
+
+        // grow buckets when the regions cover a large area
+        double area = (maxX - minX + MIN_BUCKET_SIZE) * (maxY - minY + MIN_BUCKET_SIZE);
+        this.bucketSize = Math.max(MIN_BUCKET_SIZE, Math.sqrt(area / MAX_BUCKETS));
+        this.minX = minX;
+        this.minY = minY;
+        this.cols = (int) ((maxX - minX) / bucketSize) + 1;
+        this.rows = (int) ((maxY - minY) / bucketSize) + 1;
+
+        // two passes: count edges per bucket, then fill
+        int[] counts = new int[cols * rows + 1];
+        for (int i = 0; i < edgeCount; i++) forEachBucket(i, counts, null);
+        this.bucketStart = new int[cols * rows + 1];
+        for (int b = 0; b < cols * rows; b++) {
+            bucketStart[b + 1] = bucketStart[b] + counts[b];
+        }
+        this.bucketEdges = new int[bucketStart[cols * rows]];
+        int[] fill = Arrays.copyOf(bucketStart, cols * rows);
+        for (int i = 0; i < edgeCount; i++) forEachBucket(i, null, fill);
+    }
+
+    // Either counts edge i into each bucket it touches, or files it there
+    private void forEachBucket(int i, int[] counts, int[] fill) {
+        int c0 = clampCol(col(Math.min(ax[i], bx[i]) - PAD));
+        int c1 = clampCol(col(Math.max(ax[i], bx[i]) + PAD));
+        int r0 = clampRow(row(Math.min(ay[i], by[i]) - PAD));
+        int r1 = clampRow(row(Math.max(ay[i], by[i]) + PAD));
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                double x0 = minX + c * bucketSize - PAD;
+                double y0 = minY + r * bucketSize - PAD;
+                if (!PlanarGeometry.segmentHitsBox(ax[i], ay[i], bx[i], by[i],
+                        x0, y0, x0 + bucketSize + 2 * PAD,
+                        y0 + bucketSize + 2 * PAD)) {
+                    continue;
+                }
+                int bucket = r * cols + c;
+                if (counts != null) counts[bucket]++;
+                else bucketEdges[fill[bucket]++] = i;
+            }
+        }
+    }
+
+    private int col(double x) {
+        return (int) Math.floor((x - minX) / bucketSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - minY) / bucketSize);
+    }
+
+    private int clampCol(int c) {
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    private int clampRow(int r) {
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    public int edgeCount() {
+        return ax.length;
+    }
+
+    /** True if segment p-q touches any restricted region edge */
+    public boolean segmentHitsAnyEdge(double px, double py, double qx, double qy) {
+        if (cols == 0) return false;
+        int c0 = col(Math.min(px, qx) - PAD);
+        int c1 = col(Math.max(px, qx) + PAD);
+        int r0 = row(Math.min(py, qy) - PAD);
+        int r1 = row(Math.max(py, qy) + PAD);
+        if (c1 < 0 || r1 < 0 || c0 >= cols || r0 >= rows) return false;
+
+        for (int r = Math.max(0, r0); r <= Math.min(rows - 1, r1); r++) {
+            for (int c = Math.max(0, c0); c <= Math.min(cols - 1, c1); c++) {
+                int bucket = r * cols + c;
+                for (int k = bucketStart[bucket]; k < bucketStart[bucket + 1]; k++) {
+                    int i = bucketEdges[k];
+                    if (PlanarGeometry.segmentsIntersect(px, py, qx, qy,
+                            ax[i], ay[i], bx[i], by[i])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Offsets of the segments parallel to p-q, no more than width to its
+     * left (positive) or right (negative), that touch no edge: the middle
+     * of each free band between the edges' shadows, so empty when every
+     * such segment touches one
+     */
+    public double[] freeOffsets(double px, double py, double qx, double qy, double width) {
+        double dx = qx - px, dy = qy - py;
+        double length = Math.hypot(dx, dy);
+        // unit normal, to the left of p-q
+        double nx = -dy / length, ny = dx / length;
+        double reach = width + PAD;
+
+        List<double[]> shadows = new ArrayList<>();
+        if (cols > 0) {
+            int c0 = Math.max(0, col(Math.min(px, qx) - reach));
+            int c1 = Math.min(cols - 1, col(Math.max(px, qx) + reach));
+            int r0 = Math.max(0, row(Math.min(py, qy) - reach));
+            int r1 = Math.min(rows - 1, row(Math.max(py, qy) + reach));
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    int bucket = r * cols + c;
+                    for (int k = bucketStart[bucket]; k < bucketStart[bucket + 1]; k++) {
+                        double[] shadow = shadow(bucketEdges[k], px, py, dx, dy, nx, ny);
+                        if (shadow != null && shadow[1] >= -width && shadow[0] <= width) {
+                            shadows.add(shadow);
+                        }
+                    }
+                }
+            }
+        }
+
+        shadows.sort(Comparator.comparingDouble(shadow -> shadow[0]));
+        List<Double> free = new ArrayList<>();
+        double covered = -width;
+        for (double[] shadow : shadows) {
+            if (shadow[0] > covered) free.add((covered + shadow[0]) / 2);
+            covered = Math.max(covered, shadow[1]);
+        }
+        if (covered < width) free.add((covered + width) / 2);
+        return free.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    // Offsets along (nx, ny) at which the segment from (px, py) along
+    // (dx, dy) touches edge i, padded a little; null if it never does
+    private double[] shadow(int i, double px, double py, double dx, double dy,
+                            double nx, double ny) {
+        double ex = bx[i] - ax[i], ey = by[i] - ay[i];
+        double length2 = dx * dx + dy * dy;
+        double pad = PAD * Math.sqrt(length2);
+        // how far along the segment the edge point at v lies: a0 + v * a1
+        double a0 = (ax[i] - px) * dx + (ay[i] - py) * dy;
+        double a1 = ex * dx + ey * dy;
+        double v0 = 0, v1 = 1;
+        if (a1 == 0) {
+            if (a0 < -pad || a0 > length2 + pad) return null;
+        } else {
+            double from = (-pad - a0) / a1, to = (length2 + pad - a0) / a1;
+            v0 = Math.max(0, Math.min(from, to));
+            v1 = Math.min(1, Math.max(from, to));
+            if (v0 > v1) return null;
+        }
+        // offset of the edge point at v across the segment: o0 + v * o1
+        double o0 = (ax[i] - px) * nx + (ay[i] - py) * ny;
+        double o1 = ex * nx + ey * ny;
+        double u0 = o0 + v0 * o1, u1 = o0 + v1 * o1;
+        return new double[] {Math.min(u0, u1) - PAD, Math.max(u0, u1) + PAD};
+    }
+}
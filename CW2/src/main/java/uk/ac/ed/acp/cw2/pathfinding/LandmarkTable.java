@@ -0,0 +1,113 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * ALT lower bounds (A*, landmarks, triangle inequality). Distance fields
+ * are flooded once per snapshot from a handful of landmarks: the service
+ * points (shared with {@link ServicePointFields}) and the corners of the
+ * grid around them. For a node n and goal t,
+ * every landmark L gives d(n, t) >= |d(L, t) - d(L, n)| over the cell
+ * graph, which {@link DistanceField#latticeMovesAtLeast} turns into lattice
+ * moves. Unlike the straight-line bound this one knows about the detours
+ * regions force.
+ */
+public class LandmarkTable {
+    // Landmarks at the grid corners, after those at the service points
+    private static final int CORNERS = 4;
+
+    private final ServicePointFields servicePointFields;
+    private final List<DistanceField> fields;
+
+    /** Reuses the service point fields and floods the four grid corners */
+    public LandmarkTable(ServicePointFields servicePointFields) {
+        this(servicePointFields, null);
+    }
+
+    /**
+     * As above, but repairs the corner fields of previous instead when it
+     * was built on the same grid
+     */
+    public LandmarkTable(ServicePointFields servicePointFields, LandmarkTable previous) {
+        this.servicePointFields = servicePointFields;
+        CellGrid grid = servicePointFields.grid();
+        if (grid == null) {
+            this.fields = List.of();
+            return;
+        }
+
+        RestrictedAirspace airspace = servicePointFields.airspace();
+        List<DistanceField> corners;
+        if (previous != null && previous.servicePointFields().grid() == grid) {
+            List<PreparedRegion> changed = airspace.changedSince(
+                    previous.servicePointFields().airspace());
+            List<DistanceField> before = previous.fields;
+            corners = before.subList(before.size() - CORNERS, before.size())
+                    .parallelStream()
+                    .map(field -> field.repair(airspace, changed))
+                    .toList();
+        } else {
+            int last = grid.cellCount() - 1;
+            corners = IntStream.of(0, grid.cols() - 1, last - grid.cols() + 1, last)
+                    .parallel()
+                    .mapToObj(corner -> DistanceField.flood(airspace, grid,
+                            new Position(grid.centreX(corner), grid.centreY(corner))))
+                    .toList();
+        }
+        List<DistanceField> all = new ArrayList<>(servicePointFields.fields());
+        all.addAll(corners);
+        this.fields = List.copyOf(all);
+    }
+
+    public RestrictedAirspace airspace() {
+        return servicePointFields.airspace();
+    }
+
+    public ServicePointFields servicePointFields() {
+        return servicePointFields;
+    }
+
+    public int landmarkCount() {
+        return fields.size();
+    }
+
+    /** @return lower bounds for one search towards goal */
+    public GoalBound towards(Position goal) {
+        double[] goalMoves = new double[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            goalMoves[i] = fields.get(i).movesTo(goal.lng(), goal.lat());
+        }
+        return new GoalBound(goalMoves);
+    }
+
+    /** Landmark distances to one goal, looked up once per search */
+    public final class GoalBound {
+        private final double[] goalMoves;
+
+        private GoalBound(double[] goalMoves) {
+            this.goalMoves = goalMoves;
+        }
+
+        /** @return moves still needed from (x, y), 0 when nothing is known */
+        public double movesAtLeast(double x, double y) {
+            if (fields.isEmpty()) return 0;
+            CellGrid grid = fields.getFirst().grid();
+            int cell = grid.cellAt(x, y);
+            if (cell < 0) return 0;
+
+            double best = 0;
+            for (int i = 0; i < goalMoves.length; i++) {
+                double here = fields.get(i).moves(cell);
+                // NaN or +inf: the goal or this cell is off the grid or cut off
+                if (!Double.isFinite(goalMoves[i]) || !Double.isFinite(here)) continue;
+                best = Math.max(best, Math.abs(goalMoves[i] - here));
+            }
+            return DistanceField.latticeMovesAtLeast(best, grid.cellSize());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+/**
+ * Integer view of the flight lattice. Every position the planner reaches is
+ * snapped to a 1e-6 degree grid, and the two grid coordinates are packed
+ * into a single long so search state never needs a boxed Position.
+ */
+public final class Lattice {
+    public static final double STEP = 0.00015;
+    public static final double ANGLE_CONSTRAINT = 22.5;
+    public static final int DIRECTIONS = 16;
+    public static final double RESOLUTION = 1_000_000.0;
+
+    // Offsets of the 16 legal moves, same formula as nextPosition
+    public static final double[] DX = new double[DIRECTIONS];
+    public static final double[] DY = new double[DIRECTIONS];
+    // Most moves per STEP of straight line, halfway between two headings
+    public static final double MAX_DETOUR =
+            1 / Math.cos(Math.toRadians(ANGLE_CONSTRAINT / 2));
+
+    static {
+        for (int i = 0; i < DIRECTIONS; i++) {
+            double angleRad = Math.toRadians(i * ANGLE_CONSTRAINT);
+            DX[i] = STEP * Math.cos(angleRad);
+            DY[i] = STEP * Math.sin(angleRad);
+        }
+    }
+
+    private Lattice() {}
+
+    public static long key(double lng, double lat) {
+        long x = Math.round(lng * RESOLUTION);
+        long y = Math.round(lat * RESOLUTION);
+        return (x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    public static long key(Position p) {
+        return key(p.lng(), p.lat());
+    }
+
+    public static double lng(long key) {
+        return (int) (key >> 32) / RESOLUTION;
+    }
+
+    public static double lat(long key) {
+        return (int) key / RESOLUTION;
+    }
+
+    public static Position toPosition(long key) {
+        return new Position(lng(key), lat(key));
+    }
+
+    /**
+     * Fewest moves whose offsets add up to (dx, dy), counting fractions of
+     * a move: the vector split along the two headings either side of it.
+     * Exact for the 16 headings as octile distance is for 8, and never
+     * less than the straight-line distance over STEP.
+     */
+    public static double movesAtLeast(double dx, double dy) {
+        double x = Math.abs(dx), y = Math.abs(dy);
+        if (x == 0 && y == 0) return 0;
+        // headings are symmetric about both axes, so fold into 0..90 degrees
+        int below = Math.min(DIRECTIONS / 4 - 1,
+                (int) (Math.toDegrees(Math.atan2(y, x)) / ANGLE_CONSTRAINT));
+        double ax = DX[below], ay = DY[below];
+        double bx = DX[below + 1], by = DY[below + 1];
+        // (x, y) = a * heading below + b * heading above, by Cramer's rule
+        double det = ax * by - ay * bx;
+        double a = (x * by - y * bx) / det;
+        double b = (ax * y - ay * x) / det;
+        return a + b;
+    }
+
+    // Snapped neighbour of (lng, lat) in the given direction
+    public static long neighbour(double lng, double lat, int direction) {
+        return key(lng + DX[direction], lat + DY[direction]);
+    }
+}
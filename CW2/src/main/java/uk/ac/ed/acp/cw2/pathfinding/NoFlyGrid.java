@@ -0,0 +1,284 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Restricted regions rasterised at STEP resolution. Every cell is FREE (no
+ * region edge comes near it and it is outside every region), BLOCKED (fully
+ * inside a region, edges included) or BOUNDARY (an edge passes through it).
+ * Only moves that touch a boundary cell need the exact polygon test.
+ *
+ * Cells that are not blocked are also labelled into 8-connected
+ * components. Every point of a legal flight lies in such a cell, so two
+ * points in different components can never be joined by one. A cell an
+ * edge of another region passes through still counts as blocked if it
+ * lies wholly inside one region, so where regions overlap they still wall
+ * off what they enclose. Any other boundary cell counts as open, however
+ * little free air it holds, so a gap between regions is never closed.
+ */
+public class NoFlyGrid {
+    public static final int FREE = 0;
+    public static final int BLOCKED = 1;
+    public static final int BOUNDARY = 2;
+
+    // Grids above this many cells are not worth rasterising
+    private static final long MAX_CELLS = 1L << 26;
+    // Cells are padded so edges lying on a cell border count for both sides
+    private static final double PAD = 1e-9;
+    // Component of the open air around the grid, and of cells beyond it
+    public static final int OUTSIDE = 0;
+    // Matches every component in componentNear
+    public static final int ANY = Integer.MIN_VALUE;
+    // Label components only up to this many cells (4 bytes each)
+    private static final long MAX_LABELLED_CELLS = 1L << 22;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    private final BitSet blocked;
+    private final BitSet boundary;
+    // component of each cell, -1 for blocked cells; built on first use
+    private volatile int[] components;
+
+    private NoFlyGrid(double minX, double minY, double cellSize, int cols, int rows) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.cols = cols;
+        this.rows = rows;
+        this.blocked = new BitSet(cols * rows);
+        this.boundary = new BitSet(cols * rows);
+    }
+
+    /**
+     * @return the rasterised regions, or null when the regions span too
+     * large an area to rasterise (callers then use the exact test only)
+     */
+    public static NoFlyGrid build(List<PreparedRegion> regions, double cellSize) {
+        if (regions.isEmpty()) return null;
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (PreparedRegion region : regions) {
+            minX = Math.min(minX, region.minX());
+            minY = Math.min(minY, region.minY());
+            maxX = Math.max(maxX, region.maxX());
+            maxY = Math.max(maxY, region.maxY());
+        }
+        // one spare cell around the regions
+        minX -= cellSize;
+        minY -= cellSize;
+        int cols = (int) Math.ceil((maxX - minX) / cellSize) + 2;
+        int rows = (int) Math.ceil((maxY - minY) / cellSize) + 2;
+        if ((long) cols * rows > MAX_CELLS) return null;
+
+        NoFlyGrid grid = new NoFlyGrid(minX, minY, cellSize, cols, rows);
+        for (PreparedRegion region : regions) grid.markBoundary(region);
+        for (PreparedRegion region : regions) grid.markInterior(region);
+        return grid;
+    }
+
+    private int col(double x) {
+        return (int) Math.floor((x - minX) / cellSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - minY) / cellSize);
+    }
+
+    private int clampCol(int c) {
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    private int clampRow(int r) {
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    private void markBoundary(PreparedRegion region) {
+        for (int i = 0; i < region.edgeCount(); i++) {
+            double ax = region.x(i), ay = region.y(i);
+            double bx = region.x(i + 1), by = region.y(i + 1);
+
+            int c0 = clampCol(col(Math.min(ax, bx)) - 1);
+            int c1 = clampCol(col(Math.max(ax, bx)) + 1);
+            int r0 = clampRow(row(Math.min(ay, by)) - 1);
+            int r1 = clampRow(row(Math.max(ay, by)) + 1);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    double x0 = minX + c * cellSize - PAD;
+                    double y0 = minY + r * cellSize - PAD;
+                    double x1 = minX + (c + 1) * cellSize + PAD;
+                    double y1 = minY + (r + 1) * cellSize + PAD;
+                    if (PlanarGeometry.segmentHitsBox(
+                            ax, ay, bx, by, x0, y0, x1, y1)) {
+                        boundary.set(r * cols + c);
+                    }
+                }
+            }
+        }
+    }
+
+    // No edge crosses a non-boundary cell, so its centre decides the cell;
+    // a boundary cell is blocked only if no edge of this region crosses it
+    private void markInterior(PreparedRegion region) {
+        for (int r = clampRow(row(region.minY())); r <= clampRow(row(region.maxY())); r++) {
+            for (int c = clampCol(col(region.minX())); c <= clampCol(col(region.maxX())); c++) {
+                int cell = r * cols + c;
+                if (blocked.get(cell)) continue;
+                double cx = minX + (c + 0.5) * cellSize;
+                double cy = minY + (r + 0.5) * cellSize;
+                if (!region.contains(cx, cy)) continue;
+                if (boundary.get(cell) && edgeCrosses(region, c, r)) continue;
+                blocked.set(cell);
+            }
+        }
+    }
+
+    // True if an edge of region passes through the inside of the cell; one
+    // lying along its border leaves the cell covered, edges being blocked
+    private boolean edgeCrosses(PreparedRegion region, int c, int r) {
+        double x0 = minX + c * cellSize + PAD;
+        double y0 = minY + r * cellSize + PAD;
+        double x1 = minX + (c + 1) * cellSize - PAD;
+        double y1 = minY + (r + 1) * cellSize - PAD;
+        for (int i = 0; i < region.edgeCount(); i++) {
+            if (PlanarGeometry.segmentHitsBox(region.x(i), region.y(i),
+                    region.x(i + 1), region.y(i + 1), x0, y0, x1, y1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return FREE, BLOCKED or BOUNDARY for the cell holding (x, y) */
+    public int cellState(double x, double y) {
+        int c = col(x), r = row(y);
+        if (c < 0 || r < 0 || c >= cols || r >= rows) return FREE;
+        int cell = r * cols + c;
+        if (blocked.get(cell)) return BLOCKED;
+        return boundary.get(cell) ? BOUNDARY : FREE;
+    }
+
+    /**
+     * @return the component of the cell holding (x, y): OUTSIDE beyond the
+     * grid, -1 for a blocked cell, every point of which is inside a region
+     * (so no flight starts or ends there). Grids too large to label report OUTSIDE
+     * for every cell that is not blocked.
+     */
+    public int componentAt(double x, double y) {
+        int c = col(x), r = row(y);
+        if (c < 0 || r < 0 || c >= cols || r >= rows) return OUTSIDE;
+        int cell = r * cols + c;
+        if (blocked.get(cell)) return -1;
+        int[] labels = components();
+        return labels == null ? OUTSIDE : labels[cell];
+    }
+
+    /**
+     * @return true if a cell within radius of (x, y) (by bounding box) is
+     * in the given component, or is not blocked when component is ANY
+     */
+    public boolean componentNear(double x, double y, double radius, int component) {
+        for (int r = row(y - radius); r <= row(y + radius); r++) {
+            for (int c = col(x - radius); c <= col(x + radius); c++) {
+                double cx = minX + (c + 0.5) * cellSize;
+                double cy = minY + (r + 0.5) * cellSize;
+                int found = componentAt(cx, cy);
+                if (found >= 0 && (component == ANY || found == component)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if every cell within radius of (x, y) (by bounding box)
+     * is FREE; cells beyond the grid are
+     */
+    public boolean allFree(double x, double y, double radius) {
+        int c0 = Math.max(0, col(x - radius)), c1 = Math.min(cols - 1, col(x + radius));
+        int r0 = Math.max(0, row(y - radius)), r1 = Math.min(rows - 1, row(y + radius));
+        for (int r = r0; r <= r1; r++) {
+            int cell = r * cols + c0;
+            for (int c = c0; c <= c1; c++, cell++) {
+                if (blocked.get(cell) || boundary.get(cell)) return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] components() {
+        int[] labels = components;
+        if (labels == null && (long) cols * rows <= MAX_LABELLED_CELLS) {
+            labels = label();
+            components = labels;
+        }
+        return labels;
+    }
+
+    // Flood fill of the non-blocked cells; the rim joins the outside air
+    private int[] label() {
+        int[] labels = new int[cols * rows];
+        Arrays.fill(labels, Integer.MIN_VALUE);
+        int[] queue = new int[cols * rows];
+        int next = OUTSIDE + 1;
+        for (int start = 0; start < labels.length; start++) {
+            if (labels[start] != Integer.MIN_VALUE) continue;
+            if (blocked.get(start)) {
+                labels[start] = -1;
+                continue;
+            }
+            int sc = start % cols, sr = start / cols;
+            boolean rim = sc == 0 || sr == 0 || sc == cols - 1 || sr == rows - 1;
+            int label = rim ? OUTSIDE : next++;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            labels[start] = label;
+            while (head < tail) {
+                int cell = queue[head++];
+                int c = cell % cols, r = cell / cols;
+                for (int dr = -1; dr <= 1; dr++) {
+                    for (int dc = -1; dc <= 1; dc++) {
+                        int nc = c + dc, nr = r + dr;
+                        if (nc < 0 || nr < 0 || nc >= cols || nr >= rows) continue;
+                        int neighbour = nr * cols + nc;
+                        if (labels[neighbour] != Integer.MIN_VALUE) continue;
+                        if (blocked.get(neighbour)) continue;
+                        labels[neighbour] = label;
+                        queue[tail++] = neighbour;
+                    }
+                }
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Classifies the move from a to b. BLOCKED if b lies in a blocked cell;
+     * FREE if every cell covering the move's bounding box (at most 2x2 for
+     * a single STEP move) is free; BOUNDARY otherwise, meaning only the
+     * exact polygon test can tell.
+     */
+    public int segmentState(double ax, double ay, double bx, double by) {
+        if (cellState(bx, by) == BLOCKED) return BLOCKED;
+
+        int c0 = Math.max(0, col(Math.min(ax, bx)));
+        int c1 = Math.min(cols - 1, col(Math.max(ax, bx)));
+        int r0 = Math.max(0, row(Math.min(ay, by)));
+        int r1 = Math.min(rows - 1, row(Math.max(ay, by)));
+
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * cols + c;
+                // a blocked cell other than b's may lie off the move itself
+                if (blocked.get(cell) || boundary.get(cell)) return BOUNDARY;
+            }
+        }
+        return FREE;
+    }
+}
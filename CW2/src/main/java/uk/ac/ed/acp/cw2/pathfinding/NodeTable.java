@@ -0,0 +1,135 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Search state for lattice nodes. Keys are packed lattice indices (see
+ * {@link Lattice#key}); each key gets a dense int id through an
+ * open-addressing table, and g-score, parent and closed flag live in
+ * primitive arrays indexed by that id. f-scores belong to {@link OpenSet}.
+ */
+public class NodeTable {
+    private static final int NO_PARENT = -1;
+
+    // open-addressing index: slot -> id + 1, 0 marks an empty slot
+    private int[] slots;
+    private int mask;
+
+    private long[] keys;
+    private double[] g;
+    private int[] parent;
+    private boolean[] closed;
+    private int size;
+
+    public NodeTable() {
+        this(1024);
+    }
+
+    public NodeTable(int expectedNodes) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedNodes) - 1) << 1;
+        slots = new int[capacity * 2];
+        mask = slots.length - 1;
+        keys = new long[capacity];
+        g = new double[capacity];
+        parent = new int[capacity];
+        closed = new boolean[capacity];
+    }
+
+    private static int hash(long key) {
+        // murmur3 finaliser, spreads neighbouring lattice keys across slots
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /** @return id of the node with this key, or -1 if it was never added */
+    public int find(long key) {
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (keys[id] == key) return id;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** @return id of the node with this key, adding an unvisited node if needed */
+    public int getOrAdd(long key) {
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (keys[id] == key) return id;
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == keys.length) {
+            grow();
+            return getOrAdd(key);
+        }
+
+        int id = size++;
+        keys[id] = key;
+        g[id] = Double.POSITIVE_INFINITY;
+        parent[id] = NO_PARENT;
+        closed[id] = false;
+        slots[slot] = id + 1;
+        return id;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        g = Arrays.copyOf(g, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        closed = Arrays.copyOf(closed, capacity);
+
+        slots = new int[capacity * 2];
+        mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(keys[id]) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long key(int id) {
+        return keys[id];
+    }
+
+    public double g(int id) {
+        return g[id];
+    }
+
+    public void setG(int id, double value) {
+        g[id] = value;
+    }
+
+    /** @return parent id, or -1 for the start node */
+    public int parent(int id) {
+        return parent[id];
+    }
+
+    public void setParent(int id, int parentId) {
+        parent[id] = parentId;
+    }
+
+    public boolean isClosed(int id) {
+        return closed[id];
+    }
+
+    public void close(int id) {
+        closed[id] = true;
+    }
+
+    /** Marks every node open again, for a search that repairs itself */
+    public void clearClosed() {
+        Arrays.fill(closed, 0, size, false);
+    }
+}
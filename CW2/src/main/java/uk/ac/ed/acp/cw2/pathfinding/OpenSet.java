@@ -0,0 +1,148 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * A* open set: binary min-heap of node ids (from {@link NodeTable}) ordered
+ * by f-score. Each id is in the heap at most once; pushing an id that is
+ * already queued moves it to its new priority instead of adding a stale
+ * duplicate. f-scores are kept in a primitive array next to the heap.
+ */
+public class OpenSet {
+    private static final int ABSENT = -1;
+
+    private int[] heap;       // heap slot -> node id
+    private double[] fHeap;   // heap slot -> f-score of that node
+    private int[] slotOf;     // node id -> heap slot, or ABSENT
+    private int size;
+
+    public OpenSet() {
+        this(1024);
+    }
+
+    public OpenSet(int expectedNodes) {
+        int capacity = Math.max(16, expectedNodes);
+        heap = new int[capacity];
+        fHeap = new double[capacity];
+        slotOf = new int[capacity];
+        Arrays.fill(slotOf, ABSENT);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return id < slotOf.length && slotOf[id] != ABSENT;
+    }
+
+    /** @return f-score of a queued node */
+    public double f(int id) {
+        return fHeap[slotOf[id]];
+    }
+
+    /** @return the smallest f-score in the heap, or +inf when empty */
+    public double peekF() {
+        return size == 0 ? Double.POSITIVE_INFINITY : fHeap[0];
+    }
+
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Inserts the node, or changes its f-score if it is already queued
+     * (decrease-key, or increase-key for callers that need it).
+     */
+    public void push(int id, double f) {
+        if (id >= slotOf.length) {
+            int old = slotOf.length;
+            slotOf = Arrays.copyOf(slotOf, Math.max(id + 1, old * 2));
+            Arrays.fill(slotOf, old, slotOf.length, ABSENT);
+        }
+
+        int slot = slotOf[id];
+        if (slot == ABSENT) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+                fHeap = Arrays.copyOf(fHeap, size * 2);
+            }
+            slot = size++;
+            place(slot, id, f);
+            siftUp(slot);
+        } else if (f < fHeap[slot]) {
+            fHeap[slot] = f;
+            siftUp(slot);
+        } else if (f > fHeap[slot]) {
+            fHeap[slot] = f;
+            siftDown(slot);
+        }
+    }
+
+    /** Removes and returns the node id with the smallest f-score */
+    public int poll() {
+        int top = heap[0];
+        slotOf[top] = ABSENT;
+        size--;
+        if (size > 0) {
+            place(0, heap[size], fHeap[size]);
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /** Removes a queued node, no-op if it is not in the heap */
+    public void remove(int id) {
+        if (!contains(id)) return;
+        int slot = slotOf[id];
+        slotOf[id] = ABSENT;
+        size--;
+        if (slot == size) return;
+
+        place(slot, heap[size], fHeap[size]);
+        siftDown(slot);
+        siftUp(slot);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) slotOf[heap[i]] = ABSENT;
+        size = 0;
+    }
+
+    private void place(int slot, int id, double f) {
+        heap[slot] = id;
+        fHeap[slot] = f;
+        slotOf[id] = slot;
+    }
+
+    private void siftUp(int slot) {
+        int id = heap[slot];
+        double f = fHeap[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (fHeap[parent] <= f) break;
+            place(slot, heap[parent], fHeap[parent]);
+            slot = parent;
+        }
+        place(slot, id, f);
+    }
+
+    private void siftDown(int slot) {
+        int id = heap[slot];
+        double f = fHeap[slot];
+        int half = size >>> 1;
+        while (slot < half) {
+            int child = 2 * slot + 1;
+            int right = child + 1;
+            if (right < size && fHeap[right] < fHeap[child]) child = right;
+            if (f <= fHeap[child]) break;
+            place(slot, heap[child], fHeap[child]);
+            slot = child;
+        }
+        place(slot, id, f);
+    }
+}
@@ -0,0 +1,356 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Hash-distributed A* (HDA*) over the flight lattice, so one long leg can
+ * use every core. Each half-STEP cell belongs to one worker thread, picked
+ * by a hash of the cell, and only that worker keeps the node in it, in its
+ * own node table and open set. A worker expanding a node sends each move
+ * to the owner of the cell it ends in, in batches through the owner's
+ * lock-free inbox; the owner checks a move against the regions only if it
+ * reaches the cell more cheaply than the node already there.
+ *
+ * Nodes are ordered by g + weight * h, so the route found is never more
+ * than weight times the fewest moves over these nodes, given a heuristic
+ * that never overestimates. As in planPath, the start keeps its exact
+ * position and the route ends at the first node within the close-to
+ * distance of the goal.
+ *
+ * The search is over once no worker holds a node that could shorten the
+ * best route so far and no batch is waiting in an inbox. One counter holds
+ * the workers still busy plus the batches sent but not yet taken: a batch
+ * is counted before it is sent and a worker waking for it before it is
+ * taken, so the counter only reaches zero when both are done, and cannot
+ * leave zero again.
+ */
+public class ParallelSearch {
+    // Side of the cells that hold one node each, in STEPs
+    private static final double CELL_STEPS = 0.5;
+    // Expansions a worker makes before adding them to the shared count
+    private static final int COUNT_EVERY = 64;
+    // Idle checks spun before a waiting worker yields its core
+    private static final int SPINS = 64;
+
+    // A move to the lattice point key, g moves from the start
+    private record Move(long key, double g, long parentKey) {}
+
+    private final RestrictedAirspace airspace;
+    private final Position start;
+    private final Position goal;
+    private final double closeThreshold;
+    private final SearchBounds bounds;
+    private final DoubleBinaryOperator heuristic;
+    private final long startKey;
+    private final Worker[] workers;
+
+    // busy workers plus batches sent but not yet taken
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicInteger expansions = new AtomicInteger();
+    private volatile boolean stopped;
+    private volatile Throwable failure;
+    // moves of the best route so far, and the key of the node it ends at
+    private volatile double bestG = Double.POSITIVE_INFINITY;
+    private long bestKey;
+    private double weight;
+    private List<Position> route;
+
+    /**
+     * @param heuristic moves still needed from (x, y) to come within the
+     *                  close-to distance of the goal, never overestimated;
+     *                  called from every worker at once
+     * @param threads   worker threads, the calling thread being one of them
+     */
+    public ParallelSearch(RestrictedAirspace airspace, Position start, Position goal,
+                          double closeThreshold, SearchBounds bounds,
+                          DoubleBinaryOperator heuristic, int threads) {
+        this.airspace = airspace;
+        this.start = start;
+        this.goal = goal;
+        this.closeThreshold = closeThreshold;
+        this.bounds = bounds;
+        this.heuristic = heuristic;
+        this.startKey = Lattice.key(start);
+        this.workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) workers[i] = new Worker(i);
+    }
+
+    /**
+     * Runs the workers until the best route is known to within weight.
+     * @return true if a route was found; false if none exists, or none was
+     * found within the expansion budget (see budgetSpent)
+     */
+    public boolean search(double weight) {
+        if (isCloseTo(start.lng(), start.lat())) {
+            route = List.of(start);
+            return true;
+        }
+        this.weight = Math.max(1.0, weight);
+        workers[ownerOf(start.lng(), start.lat())].seed();
+        busy.set(workers.length);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            threads.add(Thread.ofPlatform().name("hda-" + i).start(workers[i]));
+        }
+        workers[0].run();
+        try {
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            stopped = true;
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search was interrupted", e);
+        }
+        if (failure instanceof RuntimeException runtime) throw runtime;
+        if (failure instanceof Error error) throw error;
+
+        if (budgetSpent() || bestG == Double.POSITIVE_INFINITY) return false;
+        route = walkBack();
+        return true;
+    }
+
+    // Route from the start to the best goal node, through the parents
+    // each owner kept; every parent has fewer moves than its child, so
+    // this always ends at the start
+    private List<Position> walkBack() {
+        LinkedList<Position> path = new LinkedList<>();
+        for (long key = bestKey; key != startKey;
+             key = workers[ownerOf(x(key), y(key))].parentOf(key)) {
+            path.addFirst(Lattice.toPosition(key));
+        }
+        path.addFirst(start);
+        return new ArrayList<>(path);
+    }
+
+    private synchronized void reachedGoal(long key, double g) {
+        if (g < bestG) {
+            bestKey = key;
+            bestG = g;
+        }
+    }
+
+    /** Nodes of one worker's cells, and the moves it has to send */
+    private final class Worker implements Runnable {
+        final int id;
+        final ConcurrentLinkedQueue<Move[]> inbox = new ConcurrentLinkedQueue<>();
+        final NodeTable nodes = new NodeTable();
+        long[] parentKey = new long[1024];
+        // cell key -> id + 1 of the node holding it, through holder[]
+        final NodeTable cells = new NodeTable();
+        int[] holder = new int[1024];
+        final OpenSet open = new OpenSet();
+        final List<List<Move>> outbox = new ArrayList<>();
+        int edgeChecks;
+
+        Worker(int id) {
+            this.id = id;
+        }
+
+        void seed() {
+            int node = nodes.getOrAdd(startKey);
+            hold(cellOf(start.lng(), start.lat()), -1, node, 0, startKey);
+            open.push(node, weight * heuristic.applyAsDouble(start.lng(), start.lat()));
+        }
+
+        @Override
+        public void run() {
+            try {
+                work();
+            } catch (Throwable e) {
+                failure = e;
+                stopped = true;
+            }
+        }
+
+        private void work() {
+            for (int i = 0; i < workers.length; i++) outbox.add(new ArrayList<>());
+            int uncounted = 0;
+            while (!stopped) {
+                Move[] batch;
+                while ((batch = inbox.poll()) != null) {
+                    for (Move move : batch) receive(move.key(), move.g(), move.parentKey());
+                    busy.decrementAndGet();
+                }
+                if (!open.isEmpty() && open.peekF() < bestG) {
+                    expand(open.poll());
+                    if (++uncounted == COUNT_EVERY) {
+                        count(uncounted);
+                        uncounted = 0;
+                    }
+                } else if (!await()) {
+                    break;
+                }
+            }
+            count(uncounted);
+        }
+
+        private void count(int expanded) {
+            if (expansions.addAndGet(expanded) >= bounds.maxExpansions()) stopped = true;
+            // the calling thread runs worker 0, and may be cancelled
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Search was interrupted");
+            }
+        }
+
+        // Idle until a batch arrives: true to take it, false once the
+        // search is over
+        private boolean await() {
+            busy.decrementAndGet();
+            for (int spins = 0; ; spins++) {
+                if (stopped || busy.get() == 0) return false;
+                if (!inbox.isEmpty()) {
+                    busy.incrementAndGet();
+                    return true;
+                }
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+
+        private void expand(int node) {
+            long key = nodes.key(node);
+            double x = x(key), y = y(key);
+            double g = nodes.g(node) + 1;
+            if (g >= bestG) return;
+            for (int dir = 0; dir < Lattice.DIRECTIONS; dir++) {
+                long next = Lattice.neighbour(x, y, dir);
+                double nx = x(next), ny = y(next);
+                if (!bounds.contains(nx, ny)) continue;
+                int owner = ownerOf(nx, ny);
+                if (owner == id) {
+                    receive(next, g, key);
+                } else {
+                    outbox.get(owner).add(new Move(next, g, key));
+                }
+            }
+            for (int owner = 0; owner < workers.length; owner++) {
+                List<Move> moves = outbox.get(owner);
+                if (moves.isEmpty()) continue;
+                busy.incrementAndGet();
+                workers[owner].inbox.offer(moves.toArray(Move[]::new));
+                moves.clear();
+            }
+        }
+
+        // A move into one of this worker's cells, kept if it is the
+        // cheapest way there yet and not blocked
+        private void receive(long key, double g, long from) {
+            double x = x(key), y = y(key);
+            int cell = cellOf(x, y);
+            int held = holder[cell] - 1;
+            if (held >= 0 && g >= nodes.g(held)) return;
+            int node = nodes.find(key);
+            if (node >= 0 && g >= nodes.g(node)) return;
+            edgeChecks++;
+            if (airspace.moveBlocked(x(from), y(from), x, y)) return;
+
+            if (node < 0) node = nodes.getOrAdd(key);
+            hold(cell, held, node, g, from);
+            // the route ends at the first node close to the goal
+            if (isCloseTo(x, y)) {
+                reachedGoal(key, g);
+            } else {
+                open.push(node, g + weight * heuristic.applyAsDouble(x, y));
+            }
+        }
+
+        // node takes the cell from held; the old one keeps its own parent
+        // for the routes through it, but is not expanded again
+        private void hold(int cell, int held, int node, double g, long from) {
+            if (held >= 0 && held != node) open.remove(held);
+            holder[cell] = node + 1;
+            nodes.setG(node, g);
+            if (node >= parentKey.length) {
+                parentKey = Arrays.copyOf(parentKey, Math.max(node + 1, parentKey.length * 2));
+            }
+            parentKey[node] = from;
+        }
+
+        long parentOf(long key) {
+            return parentKey[nodes.find(key)];
+        }
+
+        private int cellOf(double x, double y) {
+            int cell = cells.getOrAdd(cellKey(x, y));
+            if (cell >= holder.length) {
+                holder = Arrays.copyOf(holder, Math.max(cell + 1, holder.length * 2));
+            }
+            return cell;
+        }
+    }
+
+    private int ownerOf(double x, double y) {
+        // murmur3 finaliser, so neighbouring cells go to different workers
+        long h = cellKey(x, y);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) workers.length);
+    }
+
+    private static long cellKey(double x, double y) {
+        double size = CELL_STEPS * Lattice.STEP;
+        long col = (long) Math.floor(x / size);
+        long row = (long) Math.floor(y / size);
+        return (col << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    // the start keeps its exact position, every other node sits on the
+    // lattice
+    private double x(long key) {
+        return key == startKey ? start.lng() : Lattice.lng(key);
+    }
+
+    private double y(long key) {
+        return key == startKey ? start.lat() : Lattice.lat(key);
+    }
+
+    private boolean isCloseTo(double x, double y) {
+        return Math.hypot(x - goal.lng(), y - goal.lat()) < closeThreshold;
+    }
+
+    public boolean budgetSpent() {
+        return expansions.get() >= bounds.maxExpansions();
+    }
+
+    /** @return positions from start to close to the goal, or null if none was found */
+    public List<Position> route() {
+        return route;
+    }
+
+    /**
+     * @return how many times longer than the fewest moves over the nodes
+     * kept the route may be
+     */
+    public double bound() {
+        return route == null ? Double.POSITIVE_INFINITY : route.size() == 1 ? 1.0 : weight;
+    }
+
+    public int threads() {
+        return workers.length;
+    }
+
+    public int expansions() {
+        return expansions.get();
+    }
+
+    /** @return moves checked against the regions, over all workers */
+    public int edgeChecks() {
+        int checks = 0;
+        for (Worker worker : workers) checks += worker.edgeChecks;
+        return checks;
+    }
+}
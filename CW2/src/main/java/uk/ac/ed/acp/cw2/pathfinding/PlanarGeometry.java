@@ -0,0 +1,81 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+/**
+ * Allocation-free versions of the segment tests used while searching.
+ * They follow the Position-based versions exactly, but take raw
+ * coordinates (x = lng, y = lat) so the planner does not build Position
+ * objects.
+ */
+public final class PlanarGeometry {
+    private PlanarGeometry() {}
+
+    // 2 times (signed) area of triangle by using the fact cross-product is
+    // area of parallelogram
+    public static double area2signed(double ax, double ay, double bx, double by,
+                                     double cx, double cy) {
+        return ((bx - ax) * (cy - ay)) - ((by - ay) * (cx - ax));
+    }
+
+    public static boolean pointOnEdge(double px, double py, double ax, double ay,
+                                      double bx, double by) {
+        // Check if ap and ab vector points in the same direction
+        double cross = (py - ay) * (bx - ax) - (px - ax) * (by - ay);
+        if (Math.abs(cross) != 0) return false;
+
+        return px >= Math.min(ax, bx) && px <= Math.max(ax, bx) &&
+                py >= Math.min(ay, by) && py <= Math.max(ay, by);
+    }
+
+    public static boolean segmentsIntersect(
+            double ax, double ay, double bx, double by,
+            double cx, double cy, double dx, double dy) {
+
+        // https://stackoverflow.com/a/3842240
+        double area1a = area2signed(ax, ay, bx, by, cx, cy);
+        double area1b = area2signed(ax, ay, bx, by, dx, dy);
+        double area2a = area2signed(cx, cy, dx, dy, ax, ay);
+        double area2b = area2signed(cx, cy, dx, dy, bx, by);
+
+        // proper intersection
+        if (((area1a < 0) != (area1b < 0)) &&
+                ((area2a < 0) != (area2b < 0))) {
+            return true;
+        }
+
+        // an endpoint lies on the other segment
+        if (area1a == 0 && pointOnEdge(cx, cy, ax, ay, bx, by)) return true;
+        if (area1b == 0 && pointOnEdge(dx, dy, ax, ay, bx, by)) return true;
+        if (area2a == 0 && pointOnEdge(ax, ay, cx, cy, dx, dy)) return true;
+        return area2b == 0 && pointOnEdge(bx, by, cx, cy, dx, dy);
+    }
+
+    // Liang-Barsky clip of segment a-b against the box [x0, x1] x [y0, y1]
+    public static boolean segmentHitsBox(double ax, double ay, double bx, double by,
+                                         double x0, double y0, double x1, double y1) {
+        double dx = bx - ax, dy = by - ay;
+        double t0 = 0, t1 = 1;
+        for (int side = 0; side < 4; side++) {
+            double p = switch (side) {
+                case 0 -> -dx;
+                case 1 -> dx;
+                case 2 -> -dy;
+                default -> dy;
+            };
+            double q = switch (side) {
+                case 0 -> ax - x0;
+                case 1 -> x1 - ax;
+                case 2 -> ay - y0;
+                default -> y1 - ay;
+            };
+            if (p == 0) {
+                if (q < 0) return false;
+                continue;
+            }
+            double t = q / p;
+            if (p < 0) t0 = Math.max(t0, t);
+            else t1 = Math.min(t1, t);
+            if (t0 > t1) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+/**
+ * Search used for each flight leg. Set with ilp.planner.engine.
+ */
+public enum PlannerEngine {
+    // A* over the STEP lattice
+    ASTAR,
+    // HPA*: cluster graph first, then lattice search along its corridor
+    HPA,
+    // visibility graph over region corners, flown as straight lattice runs
+    VISIBILITY
+}
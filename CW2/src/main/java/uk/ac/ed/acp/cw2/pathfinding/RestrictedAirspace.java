@@ -0,0 +1,161 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+import uk.ac.ed.acp.cw2.data.Region;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Restricted regions of one ILP snapshot, together with the lookup
+ * structures the planner builds from them. Built once per region list and
+ * shared by every search on that list.
+ */
+public class RestrictedAirspace {
+    private final List<Region> regions;
+    private final List<PreparedRegion> prepared;
+    private final NoFlyGrid grid;
+    private final EdgeIndex edges;
+    // built on first use, once the airspace is fully constructed
+    private volatile ClusterGraph clusterGraph;
+
+    public RestrictedAirspace(List<Region> regions) {
+        this.regions = List.copyOf(regions);
+        this.prepared = PreparedRegion.of(this.regions);
+        this.grid = NoFlyGrid.build(prepared, Lattice.STEP);
+        this.edges = new EdgeIndex(prepared);
+    }
+
+    public List<Region> regions() {
+        return regions;
+    }
+
+    public List<PreparedRegion> preparedRegions() {
+        return prepared;
+    }
+
+    /**
+     * One graph per airspace, shared by every search on it; its clusters
+     * are only built as searches reach them
+     */
+    public ClusterGraph clusterGraph() {
+        ClusterGraph graph = clusterGraph;
+        if (graph == null) {
+            synchronized (this) {
+                graph = clusterGraph;
+                if (graph == null) {
+                    graph = new ClusterGraph(this, Lattice.STEP);
+                    clusterGraph = graph;
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @return the regions in only one of this airspace and previous: added
+     * since, or removed since
+     */
+    public List<PreparedRegion> changedSince(RestrictedAirspace previous) {
+        List<PreparedRegion> changed = new ArrayList<>();
+        Set<Region> before = new HashSet<>(previous.regions);
+        Set<Region> now = new HashSet<>(regions);
+        for (int i = 0; i < regions.size(); i++) {
+            if (!before.contains(regions.get(i))) changed.add(prepared.get(i));
+        }
+        for (int i = 0; i < previous.regions.size(); i++) {
+            if (!now.contains(previous.regions.get(i))) changed.add(previous.prepared.get(i));
+        }
+        return changed;
+    }
+
+    /** @return true if this airspace was built from the given regions */
+    public boolean matches(List<Region> other) {
+        return regions.equals(other);
+    }
+
+    /**
+     * True if the move from (x, y) to (nx, ny) ends in or crosses a
+     * restricted region. Decided by the grid unless the move touches a
+     * boundary cell.
+     */
+    public boolean moveBlocked(double x, double y, double nx, double ny) {
+        if (grid != null) {
+            int state = grid.segmentState(x, y, nx, ny);
+            if (state == NoFlyGrid.FREE) return false;
+            if (state == NoFlyGrid.BLOCKED) return true;
+        }
+        return exactMoveBlocked(x, y, nx, ny);
+    }
+
+    /** True if (x, y) lies inside or on the edge of a restricted region */
+    public boolean pointBlocked(double x, double y) {
+        if (grid != null) {
+            int state = grid.cellState(x, y);
+            if (state == NoFlyGrid.FREE) return false;
+            if (state == NoFlyGrid.BLOCKED) return true;
+        }
+        for (PreparedRegion region : prepared) {
+            if (region.contains(x, y)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * True if no region comes within radius of (x, y), so that any move
+     * around it is clear. Conservative: false whenever the grid cannot
+     * tell.
+     */
+    public boolean clearAround(double x, double y, double radius) {
+        if (grid == null) return prepared.isEmpty();
+        return grid.allFree(x, y, radius);
+    }
+
+    /**
+     * Fast test that no legal flight from start can end within radius of
+     * goal: the goal and everything around it is inside a region, or the
+     * regions cut it off from the start. False when a flight may exist.
+     */
+    public boolean goalCutOff(Position start, Position goal, double radius) {
+        if (grid == null) return false;
+        int from = grid.componentAt(start.lng(), start.lat());
+        return from < 0 || !grid.componentNear(goal.lng(), goal.lat(), radius, from);
+    }
+
+    /** True if every point within radius of (x, y) is inside a region */
+    public boolean pointEnclosed(double x, double y, double radius) {
+        return grid != null && !grid.componentNear(x, y, radius, NoFlyGrid.ANY);
+    }
+
+    /**
+     * True if every move parallel to the one from (x, y) to (nx, ny), and
+     * no more than width to either side of it, ends in or crosses a
+     * restricted region; false wherever a gap between regions lets one of
+     * them through, however narrow.
+     */
+    public boolean sweptMoveBlocked(double x, double y, double nx, double ny, double width) {
+        if (!moveBlocked(x, y, nx, ny)) return false;
+        double length = Math.hypot(nx - x, ny - y);
+        double ux = (y - ny) / length, uy = (nx - x) / length;
+        for (double offset : edges.freeOffsets(x, y, nx, ny, width)) {
+            double ox = offset * ux, oy = offset * uy;
+            if (!exactMoveBlocked(x + ox, y + oy, nx + ox, ny + oy)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Exact test; the move is only checked against nearby edges. Works for
+     * segments of any length, not just single moves.
+     */
+    public boolean exactMoveBlocked(double x, double y, double nx, double ny) {
+        if (edges.segmentHitsAnyEdge(x, y, nx, ny)) return true;
+        for (PreparedRegion region : prepared) {
+            if (region.contains(nx, ny)) return true;
+        }
+        return false;
+    }
+}
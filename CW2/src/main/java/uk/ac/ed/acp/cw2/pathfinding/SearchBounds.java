@@ -0,0 +1,38 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+/**
+ * Area and effort one lattice search may use. A shortest flight never
+ * needs to go far beyond the regions it flies around or its own ends, so
+ * nodes outside the box around them are not expanded; maxExpansions caps
+ * the work inside it.
+ */
+public record SearchBounds(double minX, double minY, double maxX, double maxY,
+                           int maxExpansions) {
+    // Spare moves around the box, for lattice moves that bulge past a corner
+    public static final int MARGIN_STEPS = 8;
+
+    /** Box around the regions of airspace and both ends of a leg */
+    public static SearchBounds around(RestrictedAirspace airspace, Position start,
+                                      Position goal, int maxExpansions) {
+        double minX = Math.min(start.lng(), goal.lng());
+        double minY = Math.min(start.lat(), goal.lat());
+        double maxX = Math.max(start.lng(), goal.lng());
+        double maxY = Math.max(start.lat(), goal.lat());
+        for (PreparedRegion region : airspace.preparedRegions()) {
+            minX = Math.min(minX, region.minX());
+            minY = Math.min(minY, region.minY());
+            maxX = Math.max(maxX, region.maxX());
+            maxY = Math.max(maxY, region.maxY());
+        }
+        double margin = MARGIN_STEPS * Lattice.STEP;
+        return new SearchBounds(minX - margin, minY - margin,
+                maxX + margin, maxY + margin, maxExpansions);
+    }
+
+    public boolean contains(double x, double y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+}
@@ -0,0 +1,115 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * One {@link DistanceField} per service point, flooded once per snapshot
+ * on a shared grid. Gives obstacle-aware move counts from a service point
+ * to anywhere on the grid as a single array lookup. When only the regions
+ * change, the fields are repaired instead of flooded again.
+ */
+public class ServicePointFields {
+    // Spare cells around the regions and service points, so nearby
+    // deliveries still land on the grid
+    private static final int MARGIN = 64;
+
+    private final RestrictedAirspace airspace;
+    private final List<Position> servicePoints;
+    private final CellGrid grid;
+    private final Map<Position, DistanceField> fields = new HashMap<>();
+    // regions changed since the fields these were repaired from, or null
+    // if they were flooded
+    private final List<PreparedRegion> changed;
+
+    public ServicePointFields(RestrictedAirspace airspace, List<Position> servicePoints) {
+        this.airspace = airspace;
+        this.servicePoints = List.copyOf(servicePoints);
+        this.grid = CellGrid.around(airspace, this.servicePoints, Lattice.STEP, MARGIN);
+        this.changed = null;
+        if (grid == null) return;
+
+        List<DistanceField> flooded = this.servicePoints.parallelStream()
+                .map(sp -> DistanceField.flood(airspace, grid, sp))
+                .toList();
+        for (int i = 0; i < flooded.size(); i++) {
+            fields.put(this.servicePoints.get(i), flooded.get(i));
+        }
+    }
+
+    private ServicePointFields(RestrictedAirspace airspace, ServicePointFields previous,
+                               List<PreparedRegion> changed) {
+        this.airspace = airspace;
+        this.servicePoints = previous.servicePoints;
+        this.grid = previous.grid;
+        this.changed = List.copyOf(changed);
+        List<DistanceField> repaired = previous.fields().parallelStream()
+                .map(field -> field.repair(airspace, this.changed))
+                .toList();
+        for (int i = 0; i < repaired.size(); i++) {
+            fields.put(servicePoints.get(i), repaired.get(i));
+        }
+    }
+
+    /**
+     * These fields over a new set of regions. Repaired if the grid still
+     * covers everything, flooded again if it does not.
+     */
+    public ServicePointFields withAirspace(RestrictedAirspace other) {
+        if (other == airspace) return this;
+        CellGrid needed = CellGrid.around(other, servicePoints, Lattice.STEP, MARGIN);
+        if (grid == null || needed == null || !grid.covers(needed)) {
+            return new ServicePointFields(other, servicePoints);
+        }
+        return new ServicePointFields(other, this, other.changedSince(airspace));
+    }
+
+    /**
+     * @return regions changed since the fields these were repaired from,
+     * or null if they were flooded
+     */
+    public List<PreparedRegion> changed() {
+        return changed;
+    }
+
+    public RestrictedAirspace airspace() {
+        return airspace;
+    }
+
+    /** @return the shared grid, or null when the area was too large to flood */
+    public CellGrid grid() {
+        return grid;
+    }
+
+    /** @return fields in service point order, empty when there is no grid */
+    public List<DistanceField> fields() {
+        return servicePoints.stream()
+                .map(fields::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    public List<Position> servicePoints() {
+        return servicePoints;
+    }
+
+    /** @return true if these fields were built for the given airspace and points */
+    public boolean matches(RestrictedAirspace other, List<Position> otherPoints) {
+        return airspace == other && servicePoints.equals(otherPoints);
+    }
+
+    /**
+     * @return moves from the service point to p around the regions, NaN
+     * when p is not a flooded service point or lies off the grid, +inf when
+     * the regions cut p off
+     */
+    public double movesFrom(Position servicePoint, Position p) {
+        DistanceField field = fields.get(servicePoint);
+        return field == null ? Double.NaN : field.movesTo(p.lng(), p.lat());
+    }
+}
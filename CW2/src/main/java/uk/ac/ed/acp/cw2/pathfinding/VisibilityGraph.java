@@ -0,0 +1,174 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Visibility graph over the convex corners of the restricted regions, each
+ * pushed slightly outwards, plus a fixed set of extra points (the service
+ * points). Shortest routes around polygons bend only at such corners, so a
+ * leg is routed over this small graph and then flown corner to corner in
+ * straight lines. Built once per snapshot.
+ */
+public class VisibilityGraph {
+    // Corners are pushed this far out along their bisector, so a lattice
+    // walk that strays off the straight line still clears the region
+    private static final double INFLATE = 2 * Lattice.STEP;
+
+    private final RestrictedAirspace airspace;
+    private final List<Position> extraPoints;
+    private final double[] xs;
+    private final double[] ys;
+    // visible[i * n + j]: the straight segment from node i to node j is clear
+    private final boolean[] visible;
+
+    public VisibilityGraph(RestrictedAirspace airspace, List<Position> extraPoints) {
+        this.airspace = airspace;
+        this.extraPoints = List.copyOf(extraPoints);
+
+        List<double[]> nodes = new ArrayList<>();
+        for (PreparedRegion region : airspace.preparedRegions()) {
+            addCorners(region, nodes);
+        }
+        for (Position p : this.extraPoints) {
+            if (!airspace.pointBlocked(p.lng(), p.lat())) {
+                nodes.add(new double[]{p.lng(), p.lat()});
+            }
+        }
+
+        int n = nodes.size();
+        this.xs = new double[n];
+        this.ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = nodes.get(i)[0];
+            ys[i] = nodes.get(i)[1];
+        }
+        this.visible = new boolean[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                boolean clear = clear(xs[i], ys[i], xs[j], ys[j]);
+                visible[i * n + j] = clear;
+                visible[j * n + i] = clear;
+            }
+        }
+    }
+
+    // Convex corners only: a shortest route never bends at a reflex one
+    private void addCorners(PreparedRegion region, List<double[]> nodes) {
+        int m = region.edgeCount();
+        if (m < 3) return;
+        double area = 0;
+        for (int i = 0; i < m; i++) {
+            area += region.x(i) * region.y(i + 1) - region.x(i + 1) * region.y(i);
+        }
+
+        for (int i = 0; i < m; i++) {
+            int prev = (i + m - 1) % m, next = (i + 1) % m;
+            double vx = region.x(i), vy = region.y(i);
+            double inX = vx - region.x(prev), inY = vy - region.y(prev);
+            double outX = region.x(next) - vx, outY = region.y(next) - vy;
+            double turn = inX * outY - inY * outX;
+            if (turn == 0 || (turn > 0) != (area > 0)) continue;
+
+            // outward bisector: away from both neighbouring vertices
+            double inLength = Math.hypot(inX, inY);
+            double outLength = Math.hypot(outX, outY);
+            if (inLength == 0 || outLength == 0) continue;
+            double bx = inX / inLength - outX / outLength;
+            double by = inY / inLength - outY / outLength;
+            double bLength = Math.hypot(bx, by);
+            if (bLength == 0) continue;
+
+            double cx = vx + bx / bLength * INFLATE;
+            double cy = vy + by / bLength * INFLATE;
+            if (!airspace.pointBlocked(cx, cy)) nodes.add(new double[]{cx, cy});
+        }
+    }
+
+    private boolean clear(double ax, double ay, double bx, double by) {
+        return !airspace.exactMoveBlocked(ax, ay, bx, by)
+                && !airspace.exactMoveBlocked(bx, by, ax, ay);
+    }
+
+    public RestrictedAirspace airspace() {
+        return airspace;
+    }
+
+    /** @return true if this graph was built for the given airspace and points */
+    public boolean matches(RestrictedAirspace other, List<Position> otherPoints) {
+        return airspace == other && extraPoints.equals(otherPoints);
+    }
+
+    public int nodeCount() {
+        return xs.length;
+    }
+
+    /**
+     * Shortest route from start to goal over the graph.
+     * @return the corners to fly through, excluding start and goal, or null
+     * when start and goal are not connected
+     */
+    public List<Position> route(Position start, Position goal) {
+        int n = xs.length;
+        int startNode = n, goalNode = n + 1;
+        double sx = start.lng(), sy = start.lat();
+        double gx = goal.lng(), gy = goal.lat();
+        if (clear(sx, sy, gx, gy)) return new ArrayList<>();
+
+        boolean[] fromStart = new boolean[n];
+        boolean[] toGoal = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            fromStart[i] = clear(sx, sy, xs[i], ys[i]);
+            toGoal[i] = clear(xs[i], ys[i], gx, gy);
+        }
+
+        double[] g = new double[n + 2];
+        int[] parent = new int[n + 2];
+        boolean[] closed = new boolean[n + 2];
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        OpenSet q = new OpenSet();
+        g[startNode] = 0;
+        q.push(startNode, Math.hypot(gx - sx, gy - sy));
+
+        while (!q.isEmpty()) {
+            int curr = q.poll();
+            if (curr == goalNode) return corners(parent, goalNode, n);
+            closed[curr] = true;
+            double cx = curr == startNode ? sx : xs[curr];
+            double cy = curr == startNode ? sy : ys[curr];
+
+            for (int next = 0; next < n + 1; next++) {
+                int id = next == n ? goalNode : next;
+                if (id == curr || closed[id]) continue;
+                boolean edge = curr == startNode
+                        ? id != goalNode && fromStart[id]
+                        : (id == goalNode ? toGoal[curr] : visible[curr * n + id]);
+                if (!edge) continue;
+
+                double nx = id == goalNode ? gx : xs[id];
+                double ny = id == goalNode ? gy : ys[id];
+                double newCost = g[curr] + Math.hypot(nx - cx, ny - cy);
+                if (newCost < g[id]) {
+                    g[id] = newCost;
+                    parent[id] = curr;
+                    q.push(id, newCost + Math.hypot(gx - nx, gy - ny));
+                }
+            }
+        }
+        return null;
+    }
+
+    private List<Position> corners(int[] parent, int goalNode, int n) {
+        LinkedList<Position> corners = new LinkedList<>();
+        for (int curr = parent[goalNode]; curr >= 0 && curr < n; curr = parent[curr]) {
+            corners.addFirst(new Position(xs[curr], ys[curr]));
+        }
+        return new ArrayList<>(corners);
+    }
+}
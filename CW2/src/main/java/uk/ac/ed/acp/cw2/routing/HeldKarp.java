@@ -0,0 +1,113 @@
+package uk.ac.ed.acp.cw2.routing;
+
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Exact shortest closed tour from stop 0 by Held-Karp dynamic programming.
+ * best[mask * m + j] is the fewest moves from stop 0 through exactly the
+ * deliveries in mask, ending at delivery j (delivery j is stop j + 1).
+ * Subsets are filled in order of size; within one size every end delivery
+ * j writes only its own entries, so the ends are filled in parallel on the
+ * fork-join pool. Time and memory grow as 2^m, hence MAX_DELIVERIES.
+ */
+public final class HeldKarp {
+    // 2^16 subsets x 16 ends is about 8 MB of tables
+    public static final int MAX_DELIVERIES = 16;
+    // Below this the tables are too small to be worth splitting
+    private static final int PARALLEL_MIN = 8;
+
+    private HeldKarp() {}
+
+    /**
+     * @param legMoves moves between stops, stop 0 being the service point
+     * @return the optimal tour as stop indices, starting with 0
+     */
+    public static int[] solve(DistanceMatrix legMoves) {
+        int m = legMoves.size() - 1;
+        if (m < 0 || m > MAX_DELIVERIES) {
+            throw new IllegalArgumentException("Held-Karp takes 0 to "
+                    + MAX_DELIVERIES + " deliveries, not " + m);
+        }
+        if (m <= 2) {
+            int[] tour = new int[m + 1];
+            for (int i = 0; i <= m; i++) tour[i] = i;
+            return tour;
+        }
+
+        int full = (1 << m) - 1;
+        double[] best = new double[(full + 1) * m];
+        int[] parent = new int[(full + 1) * m];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        for (int j = 0; j < m; j++) {
+            best[(1 << j) * m + j] = legMoves.moves(0, j + 1);
+            parent[(1 << j) * m + j] = -1;
+        }
+
+        int[][] bySize = subsetsBySize(m);
+        for (int size = 2; size <= m; size++) {
+            int[] masks = bySize[size];
+            IntStream ends = IntStream.range(0, m);
+            if (m >= PARALLEL_MIN) ends = ends.parallel();
+            ends.forEach(j -> fillEnd(legMoves, m, masks, j, best, parent));
+        }
+
+        // close the tour back to the service point
+        double bestLength = Double.POSITIVE_INFINITY;
+        int last = -1;
+        for (int j = 0; j < m; j++) {
+            double length = best[full * m + j] + legMoves.moves(j + 1, 0);
+            if (length < bestLength) {
+                bestLength = length;
+                last = j;
+            }
+        }
+
+        int[] tour = new int[m + 1];
+        int mask = full;
+        for (int i = m; i >= 1; i--) {
+            tour[i] = last + 1;
+            int previous = parent[mask * m + last];
+            mask ^= 1 << last;
+            last = previous;
+        }
+        return tour;
+    }
+
+    // Every subset of the given size that ends at delivery j
+    private static void fillEnd(DistanceMatrix legMoves, int m, int[] masks, int j,
+                                double[] best, int[] parent) {
+        int bit = 1 << j;
+        for (int mask : masks) {
+            if ((mask & bit) == 0) continue;
+            int before = mask ^ bit;
+            double min = Double.POSITIVE_INFINITY;
+            int arg = -1;
+            for (int rest = before; rest != 0; rest &= rest - 1) {
+                int k = Integer.numberOfTrailingZeros(rest);
+                double length = best[before * m + k] + legMoves.moves(k + 1, j + 1);
+                if (length < min) {
+                    min = length;
+                    arg = k;
+                }
+            }
+            best[mask * m + j] = min;
+            parent[mask * m + j] = arg;
+        }
+    }
+
+    private static int[][] subsetsBySize(int m) {
+        int[] counts = new int[m + 1];
+        for (int mask = 0; mask < 1 << m; mask++) counts[Integer.bitCount(mask)]++;
+        int[][] bySize = new int[m + 1][];
+        for (int size = 0; size <= m; size++) bySize[size] = new int[counts[size]];
+        int[] fill = new int[m + 1];
+        for (int mask = 0; mask < 1 << m; mask++) {
+            int size = Integer.bitCount(mask);
+            bySize[size][fill[size]++] = mask;
+        }
+        return bySize;
+    }
+}
@@ -0,0 +1,259 @@
+package uk.ac.ed.acp.cw2.routing;
+
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Capacitated routing from one depot (stop 0) by Clarke-Wright savings,
+ * followed by a relocate local search. Every other stop starts on a flight
+ * of its own; two flights are joined end to end, best saving first, when
+ * the joined flight is still feasible. Stops are then moved between
+ * flights while that shortens the total. Last, each flight that is still
+ * unacceptable is joined onto the flight it makes acceptable most cheaply.
+ *
+ * Two checks decide what a flight may be. Feasible covers hard limits that
+ * only get tighter as a flight grows (capacity, maxMoves, availability)
+ * and must hold throughout. Acceptable is the full requirement, which a
+ * flight may only reach by growing (a cost shared between its stops). An
+ * acceptable flight is never changed into an unacceptable one, while
+ * unacceptable ones may change freely within the hard limits.
+ */
+public final class SavingsSolver {
+    // Ignore gains that are only rounding noise
+    private static final double EPS = 1e-9;
+
+    /** Decides whether one drone can fly the given stops from the depot */
+    @FunctionalInterface
+    public interface RouteCheck {
+        /** @param route stop indices in flying order, without the depot */
+        boolean allows(int[] route);
+    }
+
+    private final int n;
+    private final double[] dist;
+    private final RouteCheck feasible;
+    private final RouteCheck acceptable;
+    private final List<List<Integer>> routes = new ArrayList<>();
+    // routeOf.get(stop): the flight currently holding that stop
+    private final List<List<Integer>> routeOf;
+
+    private SavingsSolver(DistanceMatrix legMoves, RouteCheck feasible,
+                          RouteCheck acceptable) {
+        this.n = legMoves.size();
+        this.dist = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                dist[i * n + j] = (legMoves.moves(i, j) + legMoves.moves(j, i)) / 2;
+            }
+        }
+        this.feasible = feasible;
+        this.acceptable = acceptable;
+        this.routeOf = new ArrayList<>(Collections.nCopies(n, null));
+    }
+
+    /** Routing where one check is both feasible and acceptable */
+    public static List<int[]> solve(DistanceMatrix legMoves, RouteCheck check) {
+        return solve(legMoves, check, check);
+    }
+
+    /**
+     * @param legMoves   moves between stops, stop 0 being the depot
+     * @param feasible   hard limits on a flight; every single-stop flight
+     *                   is assumed to meet them
+     * @param acceptable the full requirement on a flight
+     * @return flights as stop indices in flying order, each stop exactly
+     * once, ordered by their lowest stop. Flights that could not be made
+     * acceptable are still returned.
+     */
+    public static List<int[]> solve(DistanceMatrix legMoves, RouteCheck feasible,
+                                    RouteCheck acceptable) {
+        SavingsSolver solver = new SavingsSolver(legMoves, feasible, acceptable);
+        solver.merge();
+        solver.relocate();
+        solver.repair();
+        return solver.result();
+    }
+
+    private double d(int a, int b) {
+        return dist[a * n + b];
+    }
+
+    private void merge() {
+        for (int stop = 1; stop < n; stop++) {
+            List<Integer> route = new ArrayList<>(List.of(stop));
+            routes.add(route);
+            routeOf.set(stop, route);
+        }
+
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = 1; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (saving(i, j) > EPS) pairs.add(new int[]{i, j});
+            }
+        }
+        pairs.sort(Comparator.comparingDouble((int[] pair) -> -saving(pair[0], pair[1]))
+                .thenComparingInt(pair -> pair[0])
+                .thenComparingInt(pair -> pair[1]));
+
+        for (int[] pair : pairs) {
+            int i = pair[0], j = pair[1];
+            List<Integer> a = routeOf.get(i), b = routeOf.get(j);
+            if (a == b) continue;
+            // i and j must end their flights to become neighbours
+            boolean iLast = a.getLast() == i, iFirst = a.getFirst() == i;
+            boolean jFirst = b.getFirst() == j, jLast = b.getLast() == j;
+            if (!(iLast || iFirst) || !(jFirst || jLast)) continue;
+
+            List<Integer> joined = new ArrayList<>(iLast ? a : a.reversed());
+            joined.addAll(jFirst ? b : b.reversed());
+            if (!allowed(joined, a, b)) continue;
+
+            routes.remove(a);
+            routes.remove(b);
+            routes.add(joined);
+            for (int stop : joined) routeOf.set(stop, joined);
+        }
+    }
+
+    /**
+     * Whether a flight may replace the given old ones: it must be
+     * feasible, and acceptable unless no old flight was either
+     */
+    private boolean allowed(List<Integer> route, List<Integer> oldA, List<Integer> oldB) {
+        int[] stops = toArray(route);
+        if (!feasible.allows(stops)) return false;
+        if (acceptable.allows(stops)) return true;
+        return !acceptable.allows(toArray(oldA))
+                && (oldB == null || !acceptable.allows(toArray(oldB)));
+    }
+
+    // Flying 0 -> i -> 0 and 0 -> j -> 0 against 0 -> i -> j -> 0
+    private double saving(int i, int j) {
+        return d(0, i) + d(0, j) - d(i, j);
+    }
+
+    private void relocate() {
+        boolean improved = true;
+        // every accepted move shortens the total, this only guards the loop
+        for (int round = 0; improved && round < n * n; round++) {
+            improved = false;
+            for (int stop = 1; stop < n; stop++) {
+                if (relocate(stop)) improved = true;
+            }
+        }
+    }
+
+    // Moves stop to the best place in another flight, if that is shorter
+    private boolean relocate(int stop) {
+        List<Integer> from = routeOf.get(stop);
+        int at = from.indexOf(stop);
+        int prev = at == 0 ? 0 : from.get(at - 1);
+        int next = at == from.size() - 1 ? 0 : from.get(at + 1);
+        double gain = d(prev, stop) + d(stop, next) - d(prev, next);
+
+        List<Integer> bestRoute = null;
+        int bestAt = -1;
+        double bestDelta = -EPS;
+        for (List<Integer> to : routes) {
+            if (to == from) continue;
+            for (int k = 0; k <= to.size(); k++) {
+                int p = k == 0 ? 0 : to.get(k - 1);
+                int q = k == to.size() ? 0 : to.get(k);
+                double delta = d(p, stop) + d(stop, q) - d(p, q) - gain;
+                if (delta < bestDelta) {
+                    List<Integer> moved = new ArrayList<>(to);
+                    moved.add(k, stop);
+                    if (!allowed(moved, to, null)) continue;
+                    bestDelta = delta;
+                    bestRoute = to;
+                    bestAt = k;
+                }
+            }
+        }
+        if (bestRoute == null) return false;
+
+        List<Integer> left = new ArrayList<>(from);
+        left.remove(at);
+        if (!left.isEmpty() && !allowed(left, from, null)) return false;
+
+        routes.remove(from);
+        if (!left.isEmpty()) {
+            routes.add(left);
+            for (int s : left) routeOf.set(s, left);
+        }
+        bestRoute.add(bestAt, stop);
+        routeOf.set(stop, bestRoute);
+        return true;
+    }
+
+    private void repair() {
+        List<List<Integer>> stuck = new ArrayList<>();
+        while (true) {
+            List<Integer> unacceptable = null;
+            for (List<Integer> route : routes) {
+                if (!stuck.contains(route) && !acceptable.allows(toArray(route))) {
+                    unacceptable = route;
+                    break;
+                }
+            }
+            if (unacceptable == null) return;
+
+            List<Integer> best = null, partner = null;
+            double bestExtra = Double.POSITIVE_INFINITY;
+            for (List<Integer> other : routes) {
+                if (other == unacceptable) continue;
+                for (int order = 0; order < 2; order++) {
+                    List<Integer> joined = new ArrayList<>(order == 0 ? unacceptable : other);
+                    joined.addAll(order == 0 ? other : unacceptable);
+                    double extra = length(joined) - length(unacceptable) - length(other);
+                    if (extra >= bestExtra) continue;
+                    int[] stops = toArray(joined);
+                    if (!feasible.allows(stops) || !acceptable.allows(stops)) continue;
+                    bestExtra = extra;
+                    best = joined;
+                    partner = other;
+                }
+            }
+            if (best == null) {
+                stuck.add(unacceptable);
+                continue;
+            }
+            routes.remove(unacceptable);
+            routes.remove(partner);
+            routes.add(best);
+            for (int stop : best) routeOf.set(stop, best);
+        }
+    }
+
+    // Length of the closed flight from the depot
+    private double length(List<Integer> route) {
+        double total = 0;
+        int prev = 0;
+        for (int stop : route) {
+            total += d(prev, stop);
+            prev = stop;
+        }
+        return total + d(prev, 0);
+    }
+
+    private List<int[]> result() {
+        List<int[]> result = new ArrayList<>();
+        for (List<Integer> route : routes) result.add(toArray(route));
+        result.sort(Comparator.comparingInt(route -> min(route)));
+        return result;
+    }
+
+    private static int min(int[] route) {
+        int min = Integer.MAX_VALUE;
+        for (int stop : route) min = Math.min(min, stop);
+        return min;
+    }
+
+    private static int[] toArray(List<Integer> route) {
+        return route.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,154 @@
+package uk.ac.ed.acp.cw2.routing;
+
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+
+/**
+ * 2-opt and Or-opt local search over a closed delivery tour. A tour is an
+ * array of stop indices into a {@link DistanceMatrix} that starts with the
+ * service point, stop 0; the drone flies it in order and then back to stop
+ * 0. Stop 0 never moves, so the improved tour still starts and ends at the
+ * service point.
+ *
+ * Moves are scored on the symmetric mean of the matrix, so reversing a
+ * stretch of the tour does not change its own length. The matrix is
+ * copied once; the search itself allocates nothing.
+ */
+public final class TourImprover {
+    // Ignore gains that are only rounding noise
+    private static final double EPS = 1e-9;
+    // Longest run of stops Or-opt moves at once
+    private static final int MAX_SEGMENT = 3;
+
+    private final int n;
+    private final double[] dist;
+    // route[0 .. n - 1] is the tour, route[n] is stop 0 again
+    private final int[] route;
+    private final long deadline;
+
+    private TourImprover(DistanceMatrix legMoves, int[] tour, long budgetNanos) {
+        this.n = legMoves.size();
+        this.dist = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                dist[i * n + j] = (legMoves.moves(i, j) + legMoves.moves(j, i)) / 2;
+            }
+        }
+        this.route = new int[n + 1];
+        System.arraycopy(tour, 0, route, 0, n);
+        route[n] = tour[0];
+        this.deadline = System.nanoTime() + budgetNanos;
+    }
+
+    /**
+     * Improves the tour until neither move helps or the budget runs out.
+     * @param tour every stop of legMoves once, starting with 0
+     * @return the improved tour, a new array
+     */
+    public static int[] improve(DistanceMatrix legMoves, int[] tour, long budgetNanos) {
+        if (tour.length != legMoves.size() || tour.length == 0 || tour[0] != 0) {
+            throw new IllegalArgumentException("Tour must visit every stop once from stop 0");
+        }
+        TourImprover improver = new TourImprover(legMoves, tour, budgetNanos);
+        if (tour.length > 3) improver.run();
+        int[] result = new int[tour.length];
+        System.arraycopy(improver.route, 0, result, 0, tour.length);
+        return result;
+    }
+
+    /** @return moves to fly the closed tour, by the matrix as given */
+    public static double length(DistanceMatrix legMoves, int[] tour) {
+        double total = 0;
+        for (int i = 0; i < tour.length; i++) {
+            total += legMoves.moves(tour[i], tour[(i + 1) % tour.length]);
+        }
+        return total;
+    }
+
+    private void run() {
+        boolean improved = true;
+        while (improved && !outOfTime()) {
+            improved = twoOpt();
+            improved |= orOpt();
+        }
+    }
+
+    private boolean outOfTime() {
+        return System.nanoTime() - deadline > 0;
+    }
+
+    private double d(int a, int b) {
+        return dist[a * n + b];
+    }
+
+    // Replace edges (i, i+1) and (j, j+1) with (i, j) and (i+1, j+1)
+    private boolean twoOpt() {
+        boolean improved = false;
+        for (int i = 0; i < n - 1; i++) {
+            if (outOfTime()) return improved;
+            for (int j = i + 2; j < n; j++) {
+                int a = route[i], b = route[i + 1], c = route[j], e = route[j + 1];
+                double delta = d(a, c) + d(b, e) - d(a, b) - d(c, e);
+                if (delta < -EPS) {
+                    reverse(i + 1, j);
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Move a run of up to MAX_SEGMENT stops elsewhere, either way round
+    private boolean orOpt() {
+        boolean improved = false;
+        for (int k = 1; k <= MAX_SEGMENT; k++) {
+            for (int i = 1; i + k <= n; i++) {
+                if (outOfTime()) return improved;
+                int last = i + k - 1;
+                int prev = route[i - 1], first = route[i];
+                int tail = route[last], next = route[last + 1];
+                double removed = d(prev, first) + d(tail, next) - d(prev, next);
+
+                for (int j = 0; j < n; j++) {
+                    if (j >= i - 1 && j <= last) continue;
+                    int p = route[j], q = route[j + 1];
+                    double forward = d(p, first) + d(tail, q) - d(p, q);
+                    double backward = d(p, tail) + d(first, q) - d(p, q);
+                    boolean flip = backward < forward;
+                    if (Math.min(forward, backward) - removed < -EPS) {
+                        moveSegment(i, k, j, flip);
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Moves route[i .. i+k-1] to sit between route[j] and route[j + 1]
+    private void moveSegment(int i, int k, int j, boolean flip) {
+        int start;
+        if (j > i + k - 1) {
+            // rotate route[i .. j] left by k
+            reverse(i, i + k - 1);
+            reverse(i + k, j);
+            reverse(i, j);
+            start = j - k + 1;
+        } else {
+            // rotate route[j+1 .. i+k-1] right by k
+            reverse(j + 1, i - 1);
+            reverse(i, i + k - 1);
+            reverse(j + 1, i + k - 1);
+            start = j + 1;
+        }
+        if (flip) reverse(start, start + k - 1);
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            int tmp = route[from];
+            route[from++] = route[to];
+            route[to--] = tmp;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package uk.ac.ed.acp.cw2.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs independent planning tasks on virtual threads, at most a given
+ * number at once, and returns their results in task order whatever order
+ * they finish in. The first task to fail interrupts the rest, which the
+ * searches poll for, and its exception is thrown to the caller as is.
+ *
+ * One bound covers a call and every invokeAll its tasks make, however
+ * deeply nested: the outermost call sets up maxConcurrent slots and the
+ * calls within it share them. The calling thread always holds a slot and
+ * works through the tasks itself, handing the rest to helper threads only
+ * while free slots are left, so a nested call never waits on slots its
+ * caller holds.
+ */
+public final class ConcurrentPlanning {
+    // Free slots of the outermost call, on every thread working for it
+    private static final ThreadLocal<Semaphore> SLOTS = new ThreadLocal<>();
+
+    private ConcurrentPlanning() {}
+
+    /** Cores to plan on when no parallelism is configured */
+    public static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @param maxConcurrent tasks running at once; 1 or less runs them in
+     *                      order on the calling thread. Within another call
+     *                      this only caps the helpers, the slots being
+     *                      shared with it
+     */
+    public static <T> List<T> invokeAll(List<Callable<T>> tasks, int maxConcurrent) {
+        Semaphore slots = SLOTS.get();
+        if (slots != null) return run(tasks, maxConcurrent, slots);
+        if (maxConcurrent <= 1 || tasks.size() <= 1) {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Callable<T> task : tasks) results.add(call(task));
+            return results;
+        }
+
+        // the calling thread holds one slot throughout
+        SLOTS.set(new Semaphore(maxConcurrent - 1));
+        try {
+            return run(tasks, maxConcurrent, SLOTS.get());
+        } finally {
+            SLOTS.remove();
+        }
+    }
+
+    private static <T> List<T> run(List<Callable<T>> tasks, int maxConcurrent,
+                                   Semaphore slots) {
+        Batch<T> batch = new Batch<>(tasks, Thread.currentThread());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            int helpers = 0;
+            for (int index; (index = batch.next()) >= 0; ) {
+                // hand what is left to any slots freed up since the last task
+                while (helpers < maxConcurrent - 1 && batch.hasMore() && slots.tryAcquire()) {
+                    helpers++;
+                    batch.helpers.add(executor.submit(() -> {
+                        SLOTS.set(slots);
+                        try {
+                            batch.drain();
+                        } finally {
+                            slots.release();
+                        }
+                    }));
+                }
+                batch.run(index);
+                if (Thread.currentThread().isInterrupted()) {
+                    batch.fail(new IllegalStateException("Planning was interrupted"));
+                }
+            }
+        }
+        return batch.results();
+    }
+
+    /** Tasks of one call, taken in order by the caller and its helpers */
+    private static final class Batch<T> {
+        final List<Callable<T>> tasks;
+        final AtomicReferenceArray<T> results;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Future<?>> helpers = new CopyOnWriteArrayList<>();
+        final Thread caller;
+        volatile boolean callerInterrupted;
+
+        Batch(List<Callable<T>> tasks, Thread caller) {
+            this.tasks = tasks;
+            this.results = new AtomicReferenceArray<>(tasks.size());
+            this.caller = caller;
+        }
+
+        /** @return index of the next task to run, or -1 when none is left */
+        int next() {
+            if (failure.get() != null) return -1;
+            int index = next.getAndIncrement();
+            return index < tasks.size() ? index : -1;
+        }
+
+        boolean hasMore() {
+            return failure.get() == null && next.get() < tasks.size();
+        }
+
+        void drain() {
+            for (int index; (index = next()) >= 0; ) run(index);
+        }
+
+        void run(int index) {
+            try {
+                results.set(index, tasks.get(index).call());
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        // Keeps the first failure and interrupts every thread still
+        // running a task of this call
+        void fail(Throwable e) {
+            if (!failure.compareAndSet(null, e)) return;
+            helpers.forEach(helper -> helper.cancel(true));
+            if (Thread.currentThread() != caller) {
+                callerInterrupted = true;
+                caller.interrupt();
+            }
+        }
+
+        List<T> results() {
+            Throwable cause = failure.get();
+            if (cause == null) {
+                List<T> list = new ArrayList<>(tasks.size());
+                for (int i = 0; i < tasks.size(); i++) list.add(results.get(i));
+                return list;
+            }
+            // the interrupt was only to stop the caller's own task
+            if (callerInterrupted) Thread.interrupted();
+            throw rethrow(cause);
+        }
+    }
+
+    private static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException runtime) return runtime;
+        if (cause instanceof Error error) throw error;
+        if (cause instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return new IllegalStateException("Planning was interrupted", cause);
+        }
+        return new IllegalStateException(cause);
+    }
+}
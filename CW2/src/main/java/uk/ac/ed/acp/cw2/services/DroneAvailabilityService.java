@@ -94,28 +94,7 @@ public class DroneAvailabilityService {
                 }
 
                 // Check time slots against present constraints
-                boolean matches = false;
-                for (Availability timeSlot : droneAvailability.availability()) {
-                    if (timeSlot == null) continue;
-                    String availableDayOfWeek = timeSlot.dayOfWeek();
-                    LocalTime from = timeSlot.from();
-                    LocalTime until = timeSlot.until();
-
-                    boolean dayOK = nullDayConstraint
-                            || (availableDayOfWeek.equalsIgnoreCase(dayOfWeek));
-
-                    boolean timeOK = nullTimeConstraint
-                            // slot.from <= startTime && slot.until >= endTime
-                            || (!from.isAfter(startTime)
-                            && !until.isBefore(endTime));
-
-                    if (dayOK && timeOK) {
-                        matches = true;
-                        break; // this drone qualifies; no need to check more slots
-                    }
-
-                }
-                if (matches){
+                if (isAvailable(droneAvailability, dayOfWeek, startTime, endTime)){
                     availableDrones.add(droneId);
                 }
             }
@@ -126,6 +105,40 @@ public class DroneAvailabilityService {
         return availableDrones;
     }
 
+    /**
+     * Whether one of the drone's time slots covers the whole window; a
+     * missing day or time puts no constraint on it
+     */
+    public boolean isAvailable(DronesAvailability droneAvailability,
+                               String dayOfWeek,
+                               LocalTime startTime, LocalTime endTime)
+    {
+        boolean nullDayConstraint = (dayOfWeek == null);
+        boolean nullTimeConstraint = (startTime == null || endTime == null);
+        if (nullDayConstraint && nullTimeConstraint) return true;
+        if (droneAvailability.availability() == null) return false;
+
+        for (Availability timeSlot : droneAvailability.availability()) {
+            if (timeSlot == null) continue;
+            String availableDayOfWeek = timeSlot.dayOfWeek();
+            LocalTime from = timeSlot.from();
+            LocalTime until = timeSlot.until();
+
+            boolean dayOK = nullDayConstraint
+                    || (availableDayOfWeek.equalsIgnoreCase(dayOfWeek));
+
+            boolean timeOK = nullTimeConstraint
+                    // slot.from <= startTime && slot.until >= endTime
+                    || (!from.isAfter(startTime)
+                    && !until.isBefore(endTime));
+
+            if (dayOK && timeOK) {
+                return true; // this drone qualifies; no need to check more slots
+            }
+        }
+        return false;
+    }
+
     public Set<String> filterDronesByLBCost(
             Set<String> availableDrones, List<MedDispatchRec> recs,
             List<DroneServicePoint> servicePoints,
@@ -1,6 +1,7 @@
 package uk.ac.ed.acp.cw2.services;
 
 import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
 import uk.ac.ed.acp.cw2.data.Region;
 
 
@@ -9,5 +10,6 @@ public interface GeometryService {
     boolean isCloseTo(Position p1, Position p2);
     Position nextPosition(Position start, double angleDeg);
     boolean isInRegion(Position p, Region region);
+    boolean isInRegion(Position p, PreparedRegion region);
     boolean pointOnEdge(Position p, Position a, Position b);
 }
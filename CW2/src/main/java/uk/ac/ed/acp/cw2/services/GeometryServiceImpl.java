@@ -1,10 +1,9 @@
 package uk.ac.ed.acp.cw2.services;
 import org.springframework.stereotype.Service;
 import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
 import uk.ac.ed.acp.cw2.data.Region;
 
-import java.util.List;
-
 
 @Service
 public class GeometryServiceImpl implements GeometryService {
@@ -58,32 +57,14 @@ public class GeometryServiceImpl implements GeometryService {
     @Override
     public boolean isInRegion(Position pos, Region region) {
         validatePosition(pos);
-        boolean inRegion = false;
-        List<Position> vertices = region.vertices();
-        for (int i = 0;  i < vertices.size() - 1; ++i) {
-            Position ver1 = vertices.get(i);
-            Position ver2 = vertices.get(i+1);
-
-            if (pointOnEdge(pos, ver1, ver2)) {
-                return true;
-            }
-            if (crossEdge(pos, ver1, ver2)){
-                inRegion = !inRegion;
-            }
-        }
-
-        return inRegion;
+        return PreparedRegion.of(region).contains(pos.lng(), pos.lat());
     }
 
-    private boolean crossEdge(Position point, Position v1, Position v2){
-        double xp = point.lng();
-        double yp = point.lat();
-        double x1 = v1.lng();
-        double y1 = v1.lat();
-        double x2 = v2.lng();
-        double y2 = v2.lat();
-        return ((yp < y1) != (yp < y2)) &&
-                (xp < x2 + (yp-y2)*((x1-x2)/(y1-y2)) );
+    // Regions used more than once should be prepared once by the caller
+    @Override
+    public boolean isInRegion(Position pos, PreparedRegion region) {
+        validatePosition(pos);
+        return region.contains(pos.lng(), pos.lat());
     }
 
     @Override
@@ -2,10 +2,45 @@ package uk.ac.ed.acp.cw2.services;
 
 import uk.ac.ed.acp.cw2.data.Capabilities;
 import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceField;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+import uk.ac.ed.acp.cw2.pathfinding.ServicePointFields;
+
+/**
+ * Lower bounds on moves and cost. With service point fields for the
+ * snapshot, legs starting or ending at a service point are bounded by
+ * the move count around the regions instead of the straight line; with a
+ * distance matrix for the batch, so is every leg between two of its stops.
+ */
+public record MoveCostEstimator(GeometryService geometryService, double STEP,
+                                ServicePointFields servicePointFields,
+                                DistanceMatrix legMoves) {
+    public MoveCostEstimator(GeometryService geometryService, double STEP) {
+        this(geometryService, STEP, null, null);
+    }
+
+    public MoveCostEstimator withServicePointFields(ServicePointFields fields) {
+        return new MoveCostEstimator(geometryService, STEP, fields, legMoves);
+    }
+
+    public MoveCostEstimator withLegMoves(DistanceMatrix matrix) {
+        return new MoveCostEstimator(geometryService, STEP, servicePointFields, matrix);
+    }
 
-public record MoveCostEstimator(GeometryService geometryService, double STEP) {
     public int estimateMove(Position a, Position b) {
-        return (int) Math.ceil(geometryService.euclidianDistance(a, b) / STEP);
+        double moves = geometryService.euclidianDistance(a, b) / STEP;
+        // NaN (not a stop or service point, or off the grid) is skipped
+        double around = legMoves == null ? Double.NaN : legMoves.moves(a, b);
+        if (Double.isNaN(around) && servicePointFields != null) {
+            around = servicePointFields.movesFrom(a, b);
+            if (Double.isNaN(around)) around = servicePointFields.movesFrom(b, a);
+        }
+        // fields and matrix are both flooded on STEP cells
+        if (Double.isFinite(around)) {
+            moves = Math.max(moves, DistanceField.latticeMovesAtLeast(around, Lattice.STEP));
+        }
+        return (int) Math.ceil(moves);
     }
 
     public double estimateCostLB(int moves, Capabilities cap, int nDeliveries) {
@@ -4,6 +4,7 @@ import uk.ac.ed.acp.cw2.data.DeliveryPath;
 import uk.ac.ed.acp.cw2.data.MedDispatchRec;
 import uk.ac.ed.acp.cw2.data.geoJson.GeoJsonFeatureCollection;
 
+import java.time.Duration;
 import java.util.List;
 
 
@@ -11,6 +12,9 @@ public interface PathPlanningService {
     List<String> queryAvailableDrones (List<MedDispatchRec> medDispatchRecs);
 
     DeliveryPath calcDeliveryPath (List<MedDispatchRec> medDispatchRecs);
+
+    DeliveryPath calcDeliveryPath (List<MedDispatchRec> medDispatchRecs,
+                                   Duration deadline);
      GeoJsonFeatureCollection calcDeliveryPathAsGeoJson (
             List<MedDispatchRec> medDispatchRecs);
 }
@@ -1,5 +1,8 @@
 package uk.ac.ed.acp.cw2.services;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import uk.ac.ed.acp.cw2.client.IlpRestClient;
 import uk.ac.ed.acp.cw2.data.*;
@@ -7,28 +10,100 @@ import uk.ac.ed.acp.cw2.data.geoJson.*;
 import uk.ac.ed.acp.cw2.dto.DeliveryTarget;
 import uk.ac.ed.acp.cw2.dto.DeliveryWTotalMove;
 import uk.ac.ed.acp.cw2.dto.PositionsWTotalMove;
-
+import uk.ac.ed.acp.cw2.pathfinding.AnytimeSearch;
+import uk.ac.ed.acp.cw2.pathfinding.BidirectionalSearch;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+import uk.ac.ed.acp.cw2.pathfinding.LandmarkTable;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+import uk.ac.ed.acp.cw2.pathfinding.NodeTable;
+import uk.ac.ed.acp.cw2.pathfinding.ParallelSearch;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerEngine;
+import uk.ac.ed.acp.cw2.pathfinding.RestrictedAirspace;
+import uk.ac.ed.acp.cw2.pathfinding.SearchBounds;
+import uk.ac.ed.acp.cw2.pathfinding.ServicePointFields;
+import uk.ac.ed.acp.cw2.pathfinding.VisibilityGraph;
+import uk.ac.ed.acp.cw2.routing.HeldKarp;
+import uk.ac.ed.acp.cw2.routing.SavingsSolver;
+import uk.ac.ed.acp.cw2.routing.TourImprover;
+
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 @Service
 public class PathPlanningServiceImpl implements PathPlanningService {
+    private static final Logger logger =
+            LoggerFactory.getLogger(PathPlanningServiceImpl.class);
     private static final double STEP = 0.00015;
-    private static final double ANGLE_CONSTRAINT = 22.5;
-    private final DroneQueriesService droneQueriesService;
+    private static final double CLOSE_THRESHOLD = 0.00015;
     private final MoveCostEstimator moveCostEstimator;
     private final IlpRestClient ilpRestClient;
     private final GeometryService geometryService;
     private final DroneAvailabilityService droneAvailabilityService;
+    private volatile RestrictedAirspace cachedAirspace;
+    private volatile VisibilityGraph cachedVisibility;
+    private volatile ServicePointFields cachedFields;
+    private volatile LandmarkTable cachedLandmarks;
+    private volatile PlanMemo lastPlanMemo;
+    private final PlannerStats stats = new PlannerStats();
+
+    @Value("${ilp.planner.engine:ASTAR}")
+    private PlannerEngine plannerEngine = PlannerEngine.ASTAR;
+    // ASTAR legs longer than this (in degrees) search from both ends. Off (0)
+    // by default: that search runs once at the initial weight, while the
+    // anytime search improves its route under the deadline with ALT bounds
+    @Value("${ilp.planner.bidirectional-distance:0}")
+    private double bidirectionalDistance = 0;
+    // Flood landmark distance tables for ALT bounds once per snapshot
+    @Value("${ilp.planner.landmarks:true}")
+    private boolean useLandmarks = true;
+    // Bound moves from service points around the regions, not in a line
+    @Value("${ilp.planner.service-point-fields:true}")
+    private boolean useServicePointFields = true;
+    // Order and cost each batch with move counts around the regions
+    @Value("${ilp.planner.leg-matrix:true}")
+    private boolean useLegMatrix = true;
+    // Time allowed to improve each greedy delivery tour (ms)
+    @Value("${ilp.planner.tour-budget-ms:20}")
+    private long tourBudgetMs = 20;
+    // Batches up to this many deliveries get an exact tour
+    @Value("${ilp.planner.exact-tour-max:12}")
+    private int exactTourMax = 12;
+    // Date groups, flights and legs planned at once; 0 means one per core
+    @Value("${ilp.planner.parallelism:0}")
+    private int parallelism = 0;
+    // Nodes one lattice search may expand before giving up
+    @Value("${ilp.planner.max-expansions:2500000}")
+    private int maxExpansions = 2_500_000;
+    // First weight on the heuristic; the anytime search lowers it to 1
+    @Value("${ilp.planner.initial-weight:2.5}")
+    private double initialWeight = 2.5;
+    // Time a request may take to improve its paths, when it sets none (ms)
+    @Value("${ilp.planner.deadline-ms:300}")
+    private long deadlineMs = 300;
+    // Moves of the lattice search: single STEPs, STEPs checked against the
+    // regions only when their node is popped, or straight runs across open
+    // ground queued only where they stop
+    @Value("${ilp.planner.successors:RUNS}")
+    private AnytimeSearch.Successors successors = AnytimeSearch.Successors.RUNS;
+    // Threads searching one long leg together (HDA*); 1 keeps each on one
+    @Value("${ilp.planner.search-threads:1}")
+    private int searchThreads = 1;
+    // ASTAR legs longer than this (in degrees) use them, given more than one
+    @Value("${ilp.planner.parallel-search-distance:0.01}")
+    private double parallelSearchDistance = 0.01;
+    // Weight on the heuristic for those legs, which are not improved after
+    @Value("${ilp.planner.parallel-weight:1.0}")
+    private double parallelWeight = 1.0;
 
     public PathPlanningServiceImpl(IlpRestClient ilpRestClient,
-                                   GeometryService geometryService,
-                                   DroneQueriesService droneQueriesService) {
+                                   GeometryService geometryService) {
         this.ilpRestClient = ilpRestClient;
         this.geometryService = geometryService;
-        this.droneQueriesService = droneQueriesService;
         this.moveCostEstimator = new MoveCostEstimator(geometryService, STEP);
         this.droneAvailabilityService = new DroneAvailabilityService();
     }
@@ -63,6 +138,7 @@ public class PathPlanningServiceImpl implements PathPlanningService {
         // build new list and maps
         var ilpSnapshot = ilpRestClient.getIlpServiceSnapshot();
         List<DroneServicePoint> servicePoints = ilpSnapshot.servicePoints();
+        prepareSnapshot(ilpSnapshot.restrictedRegions(), servicePoints);
         List<Drone> drones = ilpSnapshot.drones();
         Map<String, Drone> idToDrone = drones.stream().collect(Collectors.toMap(
                 Drone::id,
@@ -164,117 +240,158 @@ public class PathPlanningServiceImpl implements PathPlanningService {
 
         return droneAvailabilityService.filterDronesByLBCost(
                 capableDrones, medDispatchRecs, servicePoints,
-                spToAvailableDroneId, idToDrone, moveCostEstimator);
-    }
-
-    private double round(double value){
-        return Math.round(value * 1000_000.0) / 1000_000.0;
+                spToAvailableDroneId, idToDrone, moveCostEstimator());
     }
 
     public List<Position> getNeighbours(Position currentPos,
                                         List<Region> restrictedRegions){
+        RestrictedAirspace airspace = airspaceFor(restrictedRegions);
         List<Position> neighbours = new ArrayList<>();
-        for (double angle = 0; angle < 360; angle += ANGLE_CONSTRAINT){
-            Position nextPos = geometryService.nextPosition(currentPos, angle);
-            nextPos = new Position(round(nextPos.lng()), round(nextPos.lat()));
-
-            boolean inRestrictedRegion = false;
-            for(Region restrictedRegion: restrictedRegions){
-                if (geometryService.isInRegion(nextPos, restrictedRegion)
-                        || pathThroughRegion(currentPos, nextPos, restrictedRegion)){
-                    inRestrictedRegion = true;
-                    break;
-                }
-            }
-            if (!inRestrictedRegion){
-                neighbours.add(nextPos);
+        double x = currentPos.lng();
+        double y = currentPos.lat();
+        for (int dir = 0; dir < Lattice.DIRECTIONS; dir++){
+            long next = Lattice.neighbour(x, y, dir);
+            if (!airspace.moveBlocked(x, y,
+                    Lattice.lng(next), Lattice.lat(next))){
+                neighbours.add(Lattice.toPosition(next));
             }
         }
 
         return neighbours;
     }
 
-    private boolean pathThroughRegion(
-            Position currentPos, Position nextPos, Region restrictedRegion){
-
-        List<Position> vertices = restrictedRegion.vertices();
-        for (int i = 0; i<vertices.size()-1; i++){
-            if (segmentsIntersect(currentPos, nextPos, vertices.get(i),
-                    vertices.get(i+1))){
-                return true;
-            }
+    // The grid and other lookup structures are only rebuilt when the
+    // restricted regions in the ILP snapshot change
+    private RestrictedAirspace airspaceFor(List<Region> restrictedRegions){
+        RestrictedAirspace current = cachedAirspace;
+        if (current == null || !current.matches(restrictedRegions)){
+            current = new RestrictedAirspace(restrictedRegions);
+            cachedAirspace = current;
         }
-
-        return false;
+        return current;
     }
 
-    private boolean segmentsIntersect(
-            Position segment1a, Position segment1b,
-            Position segment2a, Position segment2b){
-
-        // https://stackoverflow.com/a/3842240
-
-        double area1a = area2signed(segment1a, segment1b, segment2a);
-        double area1b = area2signed(segment1a, segment1b, segment2b);
-        double area2a = area2signed(segment2a, segment2b, segment1a);
-        double area2b = area2signed(segment2a, segment2b, segment1b);
-
-        // proper intersection
-        // Check if same sign
-        if (((area1a < 0) != (area1b < 0)) &&
-                ((area2a < 0) != (area2b < 0))) {
-            return true;
+    // Rebuilt when the airspace or the service points change
+    private VisibilityGraph visibilityFor(RestrictedAirspace airspace,
+                                          List<Position> servicePoints){
+        VisibilityGraph current = cachedVisibility;
+        if (current == null || !current.matches(airspace, servicePoints)){
+            current = new VisibilityGraph(airspace, servicePoints);
+            cachedVisibility = current;
         }
+        return current;
+    }
 
-        // 2a lies on 1a and 1b
-        if (area1a == 0 && geometryService.pointOnEdge(
-                segment2a, segment1a, segment1b)) return true;
-        if (area1b == 0 && geometryService.pointOnEdge(
-                segment2b, segment1a, segment1b)) return true;
-        if (area2a == 0 && geometryService.pointOnEdge(
-                segment1a, segment2a, segment2b)) return true;
-        if (area2b == 0 && geometryService.pointOnEdge(
-                segment1b, segment2a, segment2b)) return true;
+    // Rebuilt when the service points change; repaired when only the
+    // regions do
+    private ServicePointFields servicePointFieldsFor(RestrictedAirspace airspace,
+                                                     List<Position> servicePoints){
+        ServicePointFields current = cachedFields;
+        if (current == null || !current.servicePoints().equals(servicePoints)){
+            current = new ServicePointFields(airspace, servicePoints);
+            cachedFields = current;
+        } else if (!current.matches(airspace, servicePoints)){
+            current = current.withAirspace(airspace);
+            if (current.changed() != null) {
+                logger.debug("Repaired service point fields for {} changed regions",
+                        current.changed().size());
+            }
+            cachedFields = current;
+        }
+        return current;
+    }
 
+    // Rebuilt with the service point fields it extends, repairing the
+    // previous table where those were repaired
+    private LandmarkTable landmarksFor(ServicePointFields fields){
+        LandmarkTable current = cachedLandmarks;
+        if (current == null || current.servicePointFields() != fields){
+            current = new LandmarkTable(fields, current);
+            cachedLandmarks = current;
+        }
+        return current;
+    }
 
-        return false;
+    /**
+     * Builds the lookup structures for an ILP snapshot up front: the
+     * rasterised regions, then the service point fields, landmarks and
+     * visibility graph the configuration asks for. Each is only rebuilt
+     * when the snapshot changes.
+     */
+    private RestrictedAirspace prepareSnapshot(List<Region> restrictedRegions,
+                                               List<DroneServicePoint> servicePoints){
+        RestrictedAirspace airspace = airspaceFor(restrictedRegions);
+        List<Position> locations = servicePoints.stream()
+                .map(DroneServicePoint::location).toList();
+        if (plannerEngine == PlannerEngine.VISIBILITY){
+            visibilityFor(airspace, locations);
+        }
+        if (useServicePointFields || useLandmarks){
+            ServicePointFields fields = servicePointFieldsFor(airspace, locations);
+            if (useLandmarks) landmarksFor(fields);
+        }
+        return airspace;
     }
 
+    // Move bounds from service points follow the detours around regions
+    // once the snapshot's fields are flooded
+    private MoveCostEstimator moveCostEstimator(){
+        ServicePointFields fields = cachedFields;
+        return useServicePointFields && fields != null ?
+                moveCostEstimator.withServicePointFields(fields) : moveCostEstimator;
+    }
 
-    // 2 times (signed) area of triangle by using the fact cross-product is
-    // area of parallelogram
-    private double area2signed (Position a, Position b, Position c){
-        double x_ba = b.lng() - a.lng();
-        double y_ba = b.lat() - a.lat();
-        double x_ca = c.lng() - a.lng();
-        double y_ca = c.lat() - a.lat();
-        // cross product (x_ba,y_ba)x(x_ca,y_ca)
-        return (x_ba * y_ca) - (y_ba * x_ca);
+    private double heuristic (double x, double y, Position goal,
+                              LandmarkTable.GoalBound landmarks){
+        // heuristic in "number of steps" so it matches g (one step per
+        // neighbour), along the 16 headings rather than a straight line
+        double lattice = Lattice.movesAtLeast(x - goal.lng(), y - goal.lat());
+        // landmarks also see the detours around regions
+        double moves = landmarks == null ?
+                lattice : Math.max(lattice, landmarks.movesAtLeast(x, y));
+        // the path ends anywhere within CLOSE_THRESHOLD, which saves at
+        // most MAX_DETOUR moves per STEP of it; whole moves only
+        double atLeast = moves - Lattice.MAX_DETOUR * CLOSE_THRESHOLD / STEP;
+        return Math.max(0, Math.ceil(atLeast - 1e-9));
     }
 
-    private double heuristic (Position a, Position b){
-        // heuristic in "number of steps" so it matches g (one step per neighbour)
-        return geometryService.euclidianDistance(a, b) / STEP;
+    private boolean isCloseTo(double x, double y, Position goal){
+        double dx = x - goal.lng();
+        double dy = y - goal.lat();
+        return Math.sqrt(dx * dx + dy * dy) < CLOSE_THRESHOLD;
     }
 
-    private PositionsWTotalMove calculatePath (Map<Position, Position> parent,
-                                               Position start, Position goal){
+    private PositionsWTotalMove calculatePath (NodeTable nodes, int goalNode,
+                                               Position start){
         LinkedList<Position> path = new LinkedList<>();
-        int totalMove = 0;
-        Position current = goal;
-        path.add(current);
-
-        while (current != null && !current.equals(start)){
-            current = parent.get(current);
-            if (current != null){
-                path.addFirst(current);
-                totalMove += 1;
-            }
+        int current = goalNode;
+
+        while (nodes.parent(current) >= 0){
+            path.addFirst(Lattice.toPosition(nodes.key(current)));
+            current = nodes.parent(current);
         }
-        if (path.isEmpty() || !path.getFirst().equals(start)){
+        if (nodes.key(current) != Lattice.key(start)){
             throw new IllegalArgumentException("No path found");
         }
-        return new PositionsWTotalMove(totalMove, path);
+        path.addFirst(start);
+        return new PositionsWTotalMove(path.size() - 1, path);
+    }
+
+    /**
+     * Fails fast on legs no search could fly: the goal and all around it
+     * lies inside a region, or the regions cut it off from the start
+     */
+    private void checkReachable(Position start, Position goal,
+                                RestrictedAirspace airspace){
+        if (isCloseTo(start.lng(), start.lat(), goal)) return;
+        if (airspace.pointEnclosed(goal.lng(), goal.lat(), CLOSE_THRESHOLD)){
+            throw new IllegalStateException("No path found between" + start
+                    + " and " + goal + ": the goal is inside a restricted region");
+        }
+        if (airspace.goalCutOff(start, goal, CLOSE_THRESHOLD)){
+            throw new IllegalStateException("No path found between" + start
+                    + " and " + goal + ": restricted regions cut the goal off");
+        }
     }
 
     /**
@@ -283,67 +400,291 @@ public class PathPlanningServiceImpl implements PathPlanningService {
      */
     public PositionsWTotalMove planPath (Position start, Position goal,
                                          List<Region> restrictedRegions){
+        return planPath(start, goal, airspaceFor(restrictedRegions),
+                System.nanoTime() + deadlineMs * 1_000_000);
+    }
 
-        Map<Position, Double> cost = new HashMap<>();
-        Map<Position, Double> fscore = new HashMap<>();
-        Map<Position, Position> parent = new HashMap<>();
+    // Sub-legs of the other planners: the first, weighted, pass only
+    private PositionsWTotalMove planPath (Position start, Position goal,
+                                          RestrictedAirspace airspace){
+        return planPath(start, goal, airspace, System.nanoTime());
+    }
 
-        PriorityQueue<Position> q =
-                new PriorityQueue<>(Comparator.comparingDouble(
-                        p -> fscore.getOrDefault(
-                                p, Double.POSITIVE_INFINITY)));
+    /**
+     * Anytime A* (ARA*): a quick path found with an inflated heuristic,
+     * then improved while the deadline allows
+     * @param deadline System.nanoTime() by which to stop improving
+     * @return the path, with the suboptimality bound it reached
+     */
+    private PositionsWTotalMove planPath (Position start, Position goal,
+                                          RestrictedAirspace airspace, long deadline){
+        checkReachable(start, goal, airspace);
+        LandmarkTable.GoalBound landmarks = landmarksTowards(goal, airspace);
+        PositionsWTotalMove straight = straightLeg(start, goal, airspace, landmarks);
+        if (straight != null) return straight;
+
+        AnytimeSearch search = new AnytimeSearch(airspace, start, goal,
+                CLOSE_THRESHOLD,
+                SearchBounds.around(airspace, start, goal, maxExpansions),
+                (x, y) -> heuristic(x, y, goal, landmarks), successors);
+        boolean found = search.search(initialWeight, deadline);
+        stats.searched(search.expansions(), search.edgeChecks());
+        if (!found){
+            throw new IllegalStateException("No path found between" + start
+                    + " and " + goal + (search.budgetSpent() ? " within "
+                    + maxExpansions + " expansions" : ""));
+        }
+        PositionsWTotalMove path =
+                calculatePath(search.nodes(), search.goalNode(), start);
+        return new PositionsWTotalMove(path.totalMove(), path.positions(),
+                search.bound());
+    }
 
-        Set<Position> explored = new HashSet<>();
+    /**
+     * Hash-distributed A* (HDA*): one leg searched by searchThreads
+     * workers at once, each owning part of the lattice
+     * @return the path, within parallelWeight of the fewest moves
+     */
+    private PositionsWTotalMove planPathParallel (Position start, Position goal,
+                                                  RestrictedAirspace airspace){
+        checkReachable(start, goal, airspace);
+        LandmarkTable.GoalBound landmarks = landmarksTowards(goal, airspace);
+        PositionsWTotalMove straight = straightLeg(start, goal, airspace, landmarks);
+        if (straight != null) return straight;
+
+        ParallelSearch search = new ParallelSearch(airspace, start, goal,
+                CLOSE_THRESHOLD,
+                SearchBounds.around(airspace, start, goal, maxExpansions),
+                (x, y) -> heuristic(x, y, goal, landmarks), searchThreads);
+        boolean found = search.search(parallelWeight);
+        stats.searched(search.expansions(), search.edgeChecks());
+        if (!found){
+            throw new IllegalStateException("No path found between" + start
+                    + " and " + goal + (search.budgetSpent() ? " within "
+                    + maxExpansions + " expansions" : ""));
+        }
+        List<Position> route = search.route();
+        return new PositionsWTotalMove(route.size() - 1, new ArrayList<>(route),
+                search.bound());
+    }
 
-        cost.put(start, 0.0); // gscore
-        fscore.put(start, heuristic(start, goal));
-        parent.put(start, null);
-        q.add(start);
+    // ALT bounds towards goal, if landmarks were flooded for this snapshot
+    private LandmarkTable.GoalBound landmarksTowards (Position goal,
+                                                      RestrictedAirspace airspace){
+        LandmarkTable landmarkTable = cachedLandmarks;
+        return landmarkTable != null && landmarkTable.airspace() == airspace ?
+                landmarkTable.towards(goal) : null;
+    }
 
-        // for each node v in Graph.Nodes do
-        while(!q.isEmpty()){
-            Position curr = q.poll(); // extract min
+    /**
+     * Fast path for legs over open ground: the direct lattice walk to the
+     * goal, if no move of it is blocked, with no search at all
+     * @param landmarks the bounds the search would use, or null
+     * @return the walk, bounded against the moves the search's heuristic
+     * gives for the leg; or null if it is blocked and the leg needs a search
+     */
+    private PositionsWTotalMove straightLeg (Position start, Position goal,
+                                             RestrictedAirspace airspace,
+                                             LandmarkTable.GoalBound landmarks){
+        List<Position> steps = walkStraight(start, goal, airspace);
+        if (steps == null){
+            stats.straightMiss();
+            return null;
+        }
+        stats.straightHit();
+        List<Position> path = new ArrayList<>(steps.size() + 1);
+        path.add(start);
+        path.addAll(steps);
+        double fewest = heuristic(start.lng(), start.lat(), goal, landmarks);
+        return new PositionsWTotalMove(steps.size(), path,
+                steps.isEmpty() ? 1.0 : steps.size() / Math.max(1.0, fewest));
+    }
 
-            if (geometryService.isCloseTo(curr, goal))
-                return calculatePath(parent, start, curr);
+    /**
+     * Bidirectional A*: frontiers grow from both ends and meet in the
+     * middle, and the route still ends within CLOSE_THRESHOLD of the goal.
+     * Runs once at the initial weight, so unlike planPath the route is only
+     * known to within that weight of the fewest moves.
+     */
+    public PositionsWTotalMove planPathBidirectional (Position start, Position goal,
+                                                      List<Region> restrictedRegions){
+        return planPathBidirectional(start, goal, airspaceFor(restrictedRegions));
+    }
 
-            // skip if explored
-            if (explored.contains(curr)) continue;
+    private PositionsWTotalMove planPathBidirectional (Position start, Position goal,
+                                                       RestrictedAirspace airspace){
+        checkReachable(start, goal, airspace);
+        PositionsWTotalMove straight = straightLeg(start, goal, airspace,
+                landmarksTowards(goal, airspace));
+        if (straight != null) return straight;
+        BidirectionalSearch search = new BidirectionalSearch(airspace, start, goal,
+                CLOSE_THRESHOLD, SearchBounds.around(airspace, start, goal,
+                maxExpansions), initialWeight);
+        List<Position> path = search.search();
+        if (path == null){
+            throw new IllegalStateException(
+                    "No path found between" + start + " and " + goal);
+        }
+        return new PositionsWTotalMove(path.size() - 1, path, search.bound());
+    }
 
-            explored.add(curr);
+    /**
+     * HPA* planner. Routes the leg over the cluster graph first, then refines
+     * that corridor into STEP moves by searching from waypoint to waypoint,
+     * so every move is still one of the 16 lattice directions. Waypoints that
+     * can be flown past in a straight line are skipped.
+     */
+    public PositionsWTotalMove planPathHierarchical (Position start, Position goal,
+                                                     List<Region> restrictedRegions){
+        return planPathHierarchical(start, goal, airspaceFor(restrictedRegions));
+    }
 
-            for (Position neighbour : getNeighbours(curr, restrictedRegions)){
-                // skip if explored
-                if (explored.contains(neighbour)) continue;
+    private PositionsWTotalMove planPathHierarchical (Position start, Position goal,
+                                                      RestrictedAirspace airspace){
+        List<Position> waypoints = airspace.clusterGraph().waypoints(start, goal);
+        // no abstract route, e.g. through a gap narrower than a cell
+        if (waypoints == null) return planPath(start, goal, airspace);
+        waypoints.add(goal);
+
+        List<Position> path = new ArrayList<>();
+        path.add(start);
+        Position current = start;
+        int next = 0;
+        while (next < waypoints.size()){
+            // head for the furthest waypoint in plain sight
+            int target = waypoints.size() - 1;
+            while (target > next && airspace.exactMoveBlocked(
+                    current.lng(), current.lat(),
+                    waypoints.get(target).lng(), waypoints.get(target).lat())){
+                target--;
+            }
+            List<Position> part = planPath(
+                    current, waypoints.get(target), airspace).positions();
+            path.addAll(part.subList(1, part.size()));
+            current = part.getLast();
+            next = target + 1;
+        }
+        return new PositionsWTotalMove(path.size() - 1, path);
+    }
 
-                // each neighbour is one constant-size step
-                double newCost = cost.getOrDefault(
-                        curr, Double.POSITIVE_INFINITY);
+    /**
+     * Visibility-graph planner. Routes the leg over the inflated region
+     * corners, then flies each straight segment as lattice moves. Falls back
+     * to the lattice search if the graph has no route or a segment cannot
+     * be flown cleanly.
+     */
+    public PositionsWTotalMove planPathVisibility (Position start, Position goal,
+                                                   List<Region> restrictedRegions){
+        return planPathVisibility(start, goal, airspaceFor(restrictedRegions));
+    }
 
-                if (newCost < cost.getOrDefault(
-                        neighbour, Double.POSITIVE_INFINITY)){
-                    parent.put(neighbour, curr);
-                    cost.put(neighbour, newCost);
-                    fscore.put(neighbour,
-                            newCost + heuristic(neighbour, goal));
-                    q.add(neighbour);
-                }
+    private PositionsWTotalMove planPathVisibility (Position start, Position goal,
+                                                    RestrictedAirspace airspace){
+        VisibilityGraph graph = cachedVisibility;
+        // legs planned outside calcDeliveryPath get a graph without service points
+        if (graph == null || graph.airspace() != airspace){
+            graph = visibilityFor(airspace, List.of());
+        }
+        List<Position> corners = graph.route(start, goal);
+        if (corners == null) return planPath(start, goal, airspace);
+        corners.add(goal);
+
+        List<Position> path = new ArrayList<>();
+        path.add(start);
+        Position current = start;
+        for (Position corner : corners){
+            List<Position> steps = walkStraight(current, corner, airspace);
+            if (steps == null) return planPath(start, goal, airspace);
+            path.addAll(steps);
+            if (!steps.isEmpty()) current = steps.getLast();
+        }
+        return new PositionsWTotalMove(path.size() - 1, path);
+    }
 
-            }
+    /**
+     * Flies the straight line from a to b in lattice moves. Each move takes
+     * whichever of the two directions either side of the bearing to b stays
+     * closer to the line, so the walk never strays more than a fraction of
+     * a STEP from it. Stops once close to b.
+     * @return the positions after a, or null if a move would be blocked
+     */
+    private List<Position> walkStraight (Position a, Position b,
+                                         RestrictedAirspace airspace){
+        double lineX = b.lng() - a.lng();
+        double lineY = b.lat() - a.lat();
+        double length = Math.hypot(lineX, lineY);
+        int maxSteps = (int) (2 * length / STEP) + Lattice.DIRECTIONS;
+
+        List<Position> steps = new ArrayList<>();
+        double x = a.lng(), y = a.lat();
+        while (!isCloseTo(x, y, b)){
+            if (steps.size() > maxSteps) return null;
+            double bearing = Math.toDegrees(Math.atan2(b.lat() - y, b.lng() - x));
+            int below = Math.floorMod((int) Math.floor(
+                    bearing / Lattice.ANGLE_CONSTRAINT), Lattice.DIRECTIONS);
+            long left = Lattice.neighbour(x, y, below);
+            long right = Lattice.neighbour(x, y, (below + 1) % Lattice.DIRECTIONS);
+            long next = crossTrack(left, a, lineX, lineY)
+                    <= crossTrack(right, a, lineX, lineY) ? left : right;
+
+            double nx = Lattice.lng(next), ny = Lattice.lat(next);
+            if (airspace.moveBlocked(x, y, nx, ny)) return null;
+            steps.add(Lattice.toPosition(next));
+            x = nx;
+            y = ny;
         }
-        throw new IllegalStateException(
-                "No path found between" + start + " and " + goal);
+        return steps;
+    }
+
+    // Distance (up to scale) of a lattice point from the line through a
+    private static double crossTrack (long point, Position a,
+                                      double lineX, double lineY){
+        double px = Lattice.lng(point) - a.lng();
+        double py = Lattice.lat(point) - a.lat();
+        return Math.abs(px * lineY - py * lineX);
+    }
+
+    // One flight leg with the configured engine
+    private PositionsWTotalMove planLeg (Position start, Position goal,
+                                         List<Region> restrictedRegions,
+                                         long deadline){
+        return switch (plannerEngine) {
+            case ASTAR -> {
+                double distance = geometryService.euclidianDistance(start, goal);
+                if (searchThreads > 1 && distance > parallelSearchDistance){
+                    yield planPathParallel(start, goal, airspaceFor(restrictedRegions));
+                }
+                yield bidirectionalDistance > 0 && distance > bidirectionalDistance
+                        ? planPathBidirectional(start, goal, restrictedRegions)
+                        : planPath(start, goal, airspaceFor(restrictedRegions), deadline);
+            }
+            case HPA -> planPathHierarchical(start, goal, restrictedRegions);
+            case VISIBILITY -> planPathVisibility(start, goal, restrictedRegions);
+        };
     }
 
 
     /**
-     * Assume list of record are delivered with one drone
+     * Dispatches of each date are shared out over drone flights in one
+     * pass, and only then is each flight path planned
      * @param medDispatchRecs dispatch records
      * @return DeliveryPath
      */
     @Override
     public DeliveryPath calcDeliveryPath (List<MedDispatchRec> medDispatchRecs)
     {
+        return calcDeliveryPath(medDispatchRecs, Duration.ofMillis(deadlineMs));
+    }
+
+    /**
+     * As above, improving flight paths for at most the given time. Every
+     * path gets planned however long it takes; only the improving stops.
+     */
+    @Override
+    public DeliveryPath calcDeliveryPath (List<MedDispatchRec> medDispatchRecs,
+                                          Duration deadline)
+    {
+        long deadlineNanos = System.nanoTime() + deadline.toNanos();
         var ilpSnapshot = ilpRestClient.getIlpServiceSnapshot();
         List<DroneServicePoint> servicePoints = ilpSnapshot.servicePoints();
         List<Drone> allDrones = ilpSnapshot.drones();
@@ -352,245 +693,397 @@ public class PathPlanningServiceImpl implements PathPlanningService {
                 d -> d
         ));
         List<Region> restrictedRegion = ilpSnapshot.restrictedRegions();
-        List<DroneForServicePoint> dronesForServicePoints =
-                ilpSnapshot.dronesForServicePoints();
-
-
-        List<List<MedDispatchRec>> medDispatchByDate =
-                splitByDate(medDispatchRecs);
-        return combineDeliveryPath(medDispatchByDate, restrictedRegion,
-                servicePoints, idToDrone, allDrones,
-                dronesForServicePoints);
+        Fleet fleet = new Fleet(dronesBySP(ilpSnapshot.dronesForServicePoints()),
+                idToDrone, new PlanMemo(), deadlineNanos);
+        prepareSnapshot(restrictedRegion, servicePoints);
+
+        // dates share no dispatches, so each is planned on its own
+        List<Callable<DeliveryPath>> dateGroups = new ArrayList<>();
+        for (List<MedDispatchRec> recsForDate : splitByDate(medDispatchRecs)) {
+            dateGroups.add(() -> planFlights(
+                    assignFlights(recsForDate, restrictedRegion, servicePoints, fleet),
+                    restrictedRegion, fleet));
+        }
+        DeliveryPath deliveryPath = merge(
+                ConcurrentPlanning.invokeAll(dateGroups, parallelism()));
+        logger.debug("Plan memo for {} dispatches: {}",
+                medDispatchRecs.size(), fleet.memo());
+        logger.debug("Planner: {}", stats);
+        lastPlanMemo = fleet.memo();
+        return deliveryPath;
     }
 
-    private DeliveryPath calcDeliveryPathImpl(
-            List<MedDispatchRec> medDispatchRecs,
-            List<Region> restrictedRegion,
-            List<DroneServicePoint> servicePoints,
-            Map<String, Drone> idToDrone,
-            List<Drone> allDrones,
-            List<DroneForServicePoint> dronesForServicePoints
-    ) {
+    /**
+     * Drones of one snapshot, and the memo table and deadline of one request
+     * @param spToDrones drones listed at each service point id
+     * @param deadline   System.nanoTime() by which to stop improving paths
+     */
+    private record Fleet(Map<Integer, List<DronesAvailability>> spToDrones,
+                         Map<String, Drone> idToDrone,
+                         PlanMemo memo,
+                         long deadline) {}
 
-        Map<Integer, Set<String>> spToAvailableDroneId = new HashMap<>();
+    private int parallelism() {
+        return parallelism > 0 ? parallelism : ConcurrentPlanning.defaultParallelism();
+    }
 
-        // assume only one drone
-        Set<String> availableDrones =
-                queryAvailableDronesInternal(
-                        medDispatchRecs, spToAvailableDroneId, servicePoints,
-                        idToDrone, dronesForServicePoints);
-
-        // Now spToAvailableDroneId is populated and ready to use
-
-        if (availableDrones.isEmpty()){
-            // split by heating and cooling
-            List<List<MedDispatchRec>> tempGroups =
-                    splitByTemperature(medDispatchRecs);
-            if (tempGroups.size() == 1) {
-                // nothing to split by temp → size split
-                tempGroups = splitByAlternativeServicePoint(
-                        medDispatchRecs,
-                        findBestSPToSplitRec(
-                                medDispatchRecs,
-                                servicePoints),
-                        servicePoints);
-            }
-            return combineDeliveryPath(tempGroups, restrictedRegion,
-                    servicePoints, idToDrone, allDrones,
-                    dronesForServicePoints);
-        }
-        else {
-            // available drone not empty
-            return calcDronePathSingleDrone(
-                    medDispatchRecs, restrictedRegion, servicePoints,
-                    spToAvailableDroneId, idToDrone, allDrones,
-                    dronesForServicePoints, availableDrones);
-        }
-    }
-
-    private DeliveryPath combineDeliveryPath (
-        List<List<MedDispatchRec>> groups,
-        List<Region> restrictedRegion,
-        List<DroneServicePoint> servicePoints,
-        Map<String, Drone> idToDrone,
-        List<Drone> allDrones,
-        List<DroneForServicePoint> dronesForServicePoints
-    ){
-        List<DronePath> dronePaths = new ArrayList<>();
+    // Drone paths of every part in order, with their totals and the
+    // loosest bound
+    private static DeliveryPath merge(List<DeliveryPath> parts) {
         double totalCost = 0;
         int totalMove = 0;
-        for (List<MedDispatchRec> group : groups) {
-            DeliveryPath partial = calcDeliveryPathImpl(
-                    group, restrictedRegion,
-                    servicePoints, idToDrone, allDrones,
-                    dronesForServicePoints);
-            dronePaths.addAll(partial.dronePaths());
-            totalMove += partial.totalMoves();
-            totalCost += partial.totalCost();
+        double bound = 1.0;
+        List<DronePath> dronePaths = new ArrayList<>();
+        for (DeliveryPath part : parts) {
+            totalCost += part.totalCost();
+            totalMove += part.totalMoves();
+            dronePaths.addAll(part.dronePaths());
+            Double partBound = part.suboptimalityBound();
+            bound = Math.max(bound, partBound == null ? Double.NaN : partBound);
         }
-        return new DeliveryPath(totalCost, totalMove, dronePaths);
+        return new DeliveryPath(totalCost, totalMove, dronePaths,
+                Double.isNaN(bound) ? null : bound);
     }
 
-    public DeliveryPath calcDronePathSingleDrone(
-            List<MedDispatchRec> medDispatchRecs,
-            List<Region> restrictedRegion,
-            List<DroneServicePoint> servicePoints,
-            Map<Integer, Set<String>> spToAvailableDroneId,
-            Map<String, Drone> idToDrone,
-            List<Drone> allDrones,
-            List<DroneForServicePoint> dronesForServicePoints,
-            Set<String> availableDrones
-    )
-    {
-        // smallest maxCost from medDispatchRecs
-        double maxCostReq = findMinimumMaxCostReq(medDispatchRecs);
-
-        // choose best service point
-        DroneServicePoint bestServicePoint = findBestSP(
-                medDispatchRecs, servicePoints, spToAvailableDroneId);
-
-        List<DeliveryTarget> deliveryTargets = medDispatchRecs.stream()
-                .map(record ->
-                        new DeliveryTarget(
-                                record.id(),
-                                record.delivery()
-                        )).toList();
-
-        List<DeliveryTarget> deliveryRoute =
-                TSPGreedyNN(bestServicePoint.location(), deliveryTargets);
-
-        int estTotalMove = estimateTotalMove(deliveryRoute);
-        Optional<Drone> canFly = estimateIfDroneCanFly(
-                spToAvailableDroneId.get(bestServicePoint.id()),
-                estTotalMove);
-
-        // none of the candidate drones can make this flight
-        if (canFly.isEmpty()) {
-            List<List<MedDispatchRec>> groups =
-                    splitByAlternativeServicePoint(
-                            medDispatchRecs,
-                            bestServicePoint.location(), servicePoints);
-            return combineDeliveryPath(groups, restrictedRegion,
-                    servicePoints, idToDrone, allDrones,
-                    dronesForServicePoints);
-        }
-
-        // path plan
-        DeliveryWTotalMove deliveriesWMove = planFlightPathSingleDrone(
-                deliveryRoute, restrictedRegion);
-        List<Delivery> deliveries = deliveriesWMove.deliveries();
-        int droneTotalMove = deliveriesWMove.totalMove();
-
-        Set<String> possibleDrones =
-                spToAvailableDroneId.get(bestServicePoint.id());
-        // find suitable drone
-        for (String droneId : possibleDrones){
-            // Drone can fly multiple times
-            Drone drone = idToDrone.get(droneId);
-            if (drone == null){continue;}
-            if (!availableDrones.contains(droneId)) {continue;}
+    /** Fast-path hit rates over every leg planned so far */
+    public PlannerStats plannerStats() {
+        return stats;
+    }
 
-            Capabilities droneCapabilities = drone.capability();
-            if (droneCapabilities.maxMoves() < droneTotalMove){
-                // maxMove not satisfied
-                continue;
-            }
+    /** Memo table of the latest calcDeliveryPath, for its hit rates */
+    public PlanMemo lastPlanMemo() {
+        return lastPlanMemo;
+    }
 
-            double droneTotalCost =
-                    (droneCapabilities.costPerMove() * droneTotalMove)
-                            + droneCapabilities.costInitial()
-                            + droneCapabilities.costFinal();
-
-            // maxCost requirement met
-            if ((droneTotalCost / medDispatchRecs.size()) <= maxCostReq){
-                // Same drone can fly multiple times, no need to set droneUsed
-                return new DeliveryPath(
-                        droneTotalCost, droneTotalMove,
-                        List.of(new DronePath(droneId, deliveries))
-                );
-            }
-            // continue if maxCost requirement not met
+    /**
+     * Dispatches one drone flies from a service point in one go
+     * @param legMoves moves between the service point (stop 0) and the
+     *                 deliveries of recs (stop i + 1 is recs.get(i))
+     */
+    private record Flight(DroneServicePoint servicePoint,
+                          List<MedDispatchRec> recs,
+                          DistanceMatrix legMoves) {}
+
+    private Map<Integer, List<DronesAvailability>> dronesBySP(
+            List<DroneForServicePoint> dronesForServicePoints) {
+        Map<Integer, List<DronesAvailability>> spToDrones = new HashMap<>();
+        for (DroneForServicePoint servicePoint : dronesForServicePoints) {
+            if (servicePoint.drones() == null) continue;
+            spToDrones.computeIfAbsent(servicePoint.servicePointId(),
+                    id -> new ArrayList<>()).addAll(servicePoint.drones());
         }
-        // maxCost or  requirement not met
-        // Split
-        List<List<MedDispatchRec>> splitMedDispatchRec =
-                splitByAlternativeServicePoint(
-                        medDispatchRecs, bestServicePoint.location(),
-                        servicePoints);
-
-        return combineDeliveryPath(splitMedDispatchRec, restrictedRegion,
-                servicePoints, idToDrone, allDrones,
-                dronesForServicePoints);
+        return spToDrones;
     }
 
-    private DroneServicePoint findBestSP(
+    /**
+     * Capacitated routing for dispatches of one date. Dispatches are
+     * shared out over service points, and the dispatches of each service
+     * point are joined into flights by the savings algorithm with local
+     * search. A flight must keep one drone there that meets capacity,
+     * heating or cooling, availability and maxMoves on its estimated
+     * moves; the maxCost shares, which drop as a flight grows, only need
+     * to be met in the end. Sending each dispatch to its closest service
+     * point is tried first, then sending every dispatch possible to one
+     * service point, and the flights with the fewest dispatches left over
+     * budget, then the lowest estimated cost, are kept.
+     */
+    private List<Flight> assignFlights(
             List<MedDispatchRec> medDispatchRecs,
+            List<Region> restrictedRegion,
             List<DroneServicePoint> servicePoints,
-            Map<Integer, Set<String>> spToAvailableDroneId
+            Fleet fleet
     ) {
-        Position bestServicePointPos = null;
-        String bestServicePointName = null;
-        int bestServicePointId = -1;
-        double shortestDistance = Double.MAX_VALUE;
+        int n = medDispatchRecs.size();
+        // canFlyFrom[i][s]: a drone at service point s could fly dispatch i alone
+        boolean[][] canFlyFrom = new boolean[n][servicePoints.size()];
+        int[] closest = new int[n];
+        for (int i = 0; i < n; i++) {
+            MedDispatchRec rec = medDispatchRecs.get(i);
+            int bestMoves = Integer.MAX_VALUE;
+            closest[i] = -1;
+            for (int s = 0; s < servicePoints.size(); s++) {
+                DroneServicePoint servicePoint = servicePoints.get(s);
+                canFlyFrom[i][s] = canFly(servicePoint, fleet,
+                        List.of(rec), null, false);
+                int moves = estimateTotalMove(
+                        routeTargets(servicePoint, List.of(rec)), null);
+                if (canFlyFrom[i][s] && moves < bestMoves) {
+                    bestMoves = moves;
+                    closest[i] = s;
+                }
+            }
+            if (closest[i] < 0) {
+                throw new IllegalArgumentException(
+                        "No drone can fulfil dispatch " + rec.id());
+            }
+        }
 
-        for (DroneServicePoint servicePoint: servicePoints){
+        List<int[]> assignments = new ArrayList<>();
+        assignments.add(closest);
+        for (int s = 0; s < servicePoints.size(); s++) {
+            int[] assignment = new int[n];
+            for (int i = 0; i < n; i++) {
+                assignment[i] = canFlyFrom[i][s] ? s : closest[i];
+            }
+            if (assignments.stream().noneMatch(a -> Arrays.equals(a, assignment))) {
+                assignments.add(assignment);
+            }
+        }
 
-            // skip service points without capable drones
-            if (!spToAvailableDroneId.containsKey(servicePoint.id())){
-                continue;
+        List<Flight> best = null;
+        int bestOverBudget = Integer.MAX_VALUE;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (int[] assignment : assignments) {
+            List<Flight> flights = new ArrayList<>();
+            for (int s = 0; s < servicePoints.size(); s++) {
+                List<MedDispatchRec> recs = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    if (assignment[i] == s) recs.add(medDispatchRecs.get(i));
+                }
+                if (recs.isEmpty()) continue;
+                flights.addAll(routeFrom(servicePoints.get(s), recs,
+                        restrictedRegion, fleet));
             }
 
-            double distanceSum = 0;
-            for (MedDispatchRec medDispatchRec: medDispatchRecs){
-                distanceSum += geometryService.euclidianDistance(
-                        medDispatchRec.delivery(), servicePoint.location()
-                );
+            int overBudget = 0;
+            double cost = 0;
+            for (Flight flight : flights) {
+                int moves = estimateTotalMove(routeTargets(
+                        flight.servicePoint(), flight.recs()), flight.legMoves());
+                Optional<Drone> drone = pickDrone(flight.servicePoint(), fleet,
+                        flight.recs(), moves, true);
+                if (drone.isEmpty()) {
+                    overBudget += flight.recs().size();
+                    drone = pickDrone(flight.servicePoint(), fleet,
+                            flight.recs(), moves, false);
+                }
+                cost += drone.map(d -> flightCost(d, moves)).orElse(0.0);
             }
-            if (distanceSum < shortestDistance){
-                shortestDistance = distanceSum;
-                bestServicePointPos = servicePoint.location();
-                bestServicePointName = servicePoint.name();
-                bestServicePointId = servicePoint.id();
+            if (overBudget < bestOverBudget
+                    || (overBudget == bestOverBudget && cost < bestCost)) {
+                best = flights;
+                bestOverBudget = overBudget;
+                bestCost = cost;
             }
         }
+        return best;
+    }
 
-        if (bestServicePointId == -1 || bestServicePointPos == null) {
-            throw new IllegalStateException(
-                    "No service point available for the given dispatches");
+    // Savings routing of the dispatches sent to one service point
+    private List<Flight> routeFrom(
+            DroneServicePoint servicePoint,
+            List<MedDispatchRec> recs,
+            List<Region> restrictedRegion,
+            Fleet fleet
+    ) {
+        // move counts between every pair of stops, searched in parallel
+        List<Position> stops = new ArrayList<>();
+        stops.add(servicePoint.location());
+        recs.forEach(rec -> stops.add(rec.delivery()));
+        DistanceMatrix legMoves = useLegMatrix ?
+                DistanceMatrix.build(airspaceFor(restrictedRegion), stops) :
+                DistanceMatrix.straightLine(stops);
+
+        List<int[]> routes = SavingsSolver.solve(legMoves,
+                route -> canFly(servicePoint, fleet,
+                        recsOf(recs, route), legMoves, false),
+                route -> canFly(servicePoint, fleet,
+                        recsOf(recs, route), legMoves, true));
+        List<Flight> flights = new ArrayList<>();
+        for (int[] route : routes) {
+            flights.add(flightOf(servicePoint, recs, legMoves, route));
         }
+        return flights;
+    }
 
-        return new DroneServicePoint(
-                bestServicePointName, bestServicePointId, bestServicePointPos
-        );
+    /**
+     * Orders and path plans every flight, then gives it the cheapest
+     * drone that can fly it. Flights are planned at once and their drone
+     * paths kept in flight order.
+     */
+    private DeliveryPath planFlights(
+            List<Flight> flights,
+            List<Region> restrictedRegion,
+            Fleet fleet
+    ) {
+        List<Callable<DeliveryPath>> tasks = new ArrayList<>();
+        for (Flight flight : flights) {
+            tasks.add(() -> planFlight(flight, restrictedRegion, fleet));
+        }
+        return merge(ConcurrentPlanning.invokeAll(tasks, parallelism()));
     }
 
-    private Position findBestSPToSplitRec(
-            List<MedDispatchRec> medDispatchRecs,
-            List<DroneServicePoint> servicePoints
+    /**
+     * Plans one flight. If its planned moves turn out too many for every
+     * drone it is flown in two halves instead, the first half first.
+     */
+    private DeliveryPath planFlight(
+            Flight toPlan,
+            List<Region> restrictedRegion,
+            Fleet fleet
     ) {
-        Position bestServicePointPos = null;
-        double shortestDistance = Double.MAX_VALUE;
+        List<DronePath> dronePaths = new ArrayList<>();
+        double totalCost = 0;
+        int totalMove = 0;
+        double bound = 1.0;
+        Deque<Flight> pending = new ArrayDeque<>(List.of(toPlan));
+        while (!pending.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Flight planning cancelled");
+            }
+            Flight flight = pending.poll();
+            DroneServicePoint servicePoint = flight.servicePoint();
+            int[] tour = planTour(flight.legMoves());
+            List<DeliveryTarget> deliveryRoute = toRoute(servicePoint.location(),
+                    routeTargets(servicePoint, flight.recs()).subList(1, tour.length),
+                    tour);
+
+            DeliveryWTotalMove deliveriesWMove =
+                    planFlightPathSingleDrone(deliveryRoute, restrictedRegion,
+                            fleet.memo(), fleet.deadline());
+            int droneTotalMove = deliveriesWMove.totalMove();
+            Optional<Drone> drone = pickDrone(servicePoint, fleet,
+                    flight.recs(), droneTotalMove, true);
+
+            if (drone.isEmpty()) {
+                if (flight.recs().size() < 2) {
+                    throw new IllegalArgumentException("Cannot split, request " +
+                            "can't be fulfilled");
+                }
+                int half = (tour.length + 1) / 2;
+                pending.addFirst(flightOf(servicePoint, flight.recs(),
+                        flight.legMoves(), Arrays.copyOfRange(tour, half, tour.length)));
+                pending.addFirst(flightOf(servicePoint, flight.recs(),
+                        flight.legMoves(), Arrays.copyOfRange(tour, 1, half)));
+                continue;
+            }
 
-        for (DroneServicePoint servicePoint: servicePoints){
+            totalCost += flightCost(drone.get(), droneTotalMove);
+            totalMove += droneTotalMove;
+            bound = Math.max(bound, deliveriesWMove.suboptimality());
+            dronePaths.add(new DronePath(drone.get().id(),
+                    deliveriesWMove.deliveries()));
+        }
+        return new DeliveryPath(totalCost, totalMove, dronePaths,
+                Double.isNaN(bound) ? null : bound);
+    }
 
-            double distanceSum = 0;
-            for (MedDispatchRec medDispatchRec: medDispatchRecs){
-                distanceSum += geometryService.euclidianDistance(
-                        medDispatchRec.delivery(), servicePoint.location()
-                );
-            }
-            if (distanceSum < shortestDistance){
-                shortestDistance = distanceSum;
-                bestServicePointPos = servicePoint.location();
+    // Whether a drone can fly recs in order, on estimated moves
+    private boolean canFly(DroneServicePoint servicePoint,
+                           Fleet fleet,
+                           List<MedDispatchRec> recs,
+                           DistanceMatrix legMoves,
+                           boolean checkCost) {
+        int moves = estimateTotalMove(routeTargets(servicePoint, recs), legMoves);
+        return pickDrone(servicePoint, fleet, recs, moves, checkCost).isPresent();
+    }
+
+    /**
+     * Cheapest drone at a service point that can fly all of recs in moves:
+     * one that can carry them, enough maxMoves, and if checkCost a share
+     * of the flight cost within every maxCost
+     */
+    private Optional<Drone> pickDrone(
+            DroneServicePoint servicePoint,
+            Fleet fleet,
+            List<MedDispatchRec> recs,
+            int moves,
+            boolean checkCost
+    ) {
+        double maxCostReq = findMinimumMaxCostReq(recs);
+        Drone best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (Drone drone : fleet.memo().availableDrones(servicePoint.id(), recs,
+                () -> dronesToCarry(fleet.spToDrones().get(servicePoint.id()),
+                        fleet.idToDrone(), recs))) {
+            if (drone.capability().maxMoves() < moves) continue;
+            double droneTotalCost = flightCost(drone, moves);
+            if (checkCost && droneTotalCost / recs.size() > maxCostReq) continue;
+            if (droneTotalCost < bestCost) {
+                bestCost = droneTotalCost;
+                best = drone;
             }
         }
+        return Optional.ofNullable(best);
+    }
 
-        if (bestServicePointPos == null) {
-            throw new IllegalStateException(
-                    "Error no service point to split");
+    /**
+     * Drones at a service point that can carry all of recs: enough
+     * capacity, heating or cooling as needed, and a time slot covering the
+     * dispatch times
+     */
+    private List<Drone> dronesToCarry(
+            List<DronesAvailability> dronesAtSP,
+            Map<String, Drone> idToDrone,
+            List<MedDispatchRec> recs
+    ) {
+        if (dronesAtSP == null) return List.of();
+        boolean requireCooling = false, requireHeating = false;
+        double totalRequiredCapacity = 0;
+        for (MedDispatchRec rec : recs) {
+            requireCooling |= rec.requirements().cooling();
+            requireHeating |= rec.requirements().heating();
+            totalRequiredCapacity += rec.requirements().capacity();
+        }
+        if (requireCooling && requireHeating) return List.of();
+
+        LocalDate date = recs.getFirst().date();
+        String dayOfWeek = date == null ? null : date.getDayOfWeek().toString();
+        List<LocalTime> times = recs.stream()
+                .map(MedDispatchRec::time)
+                .filter(Objects::nonNull)
+                .sorted().toList();
+        LocalTime startTime = times.isEmpty() ? null : times.getFirst();
+        LocalTime endTime = times.isEmpty() ? null : times.getLast();
+
+        List<Drone> drones = new ArrayList<>();
+        for (DronesAvailability droneAvailability : dronesAtSP) {
+            Drone drone = idToDrone.get(droneAvailability.id());
+            if (drone == null) continue;
+            Capabilities droneCapabilities = drone.capability();
+            if (droneCapabilities.capacity() < totalRequiredCapacity) continue;
+            if (requireCooling && !droneCapabilities.cooling()) continue;
+            if (requireHeating && !droneCapabilities.heating()) continue;
+            if (!droneAvailabilityService.isAvailable(
+                    droneAvailability, dayOfWeek, startTime, endTime)) continue;
+            drones.add(drone);
         }
+        return drones;
+    }
 
-        return bestServicePointPos;
+    private static double flightCost(Drone drone, int moves) {
+        Capabilities droneCapabilities = drone.capability();
+        return (droneCapabilities.costPerMove() * moves)
+                + droneCapabilities.costInitial()
+                + droneCapabilities.costFinal();
+    }
+
+    // Flight over the given stops of legMoves, stop i + 1 being recs.get(i)
+    private Flight flightOf(DroneServicePoint servicePoint,
+                            List<MedDispatchRec> recs,
+                            DistanceMatrix legMoves,
+                            int[] route) {
+        int[] picked = new int[route.length + 1];
+        System.arraycopy(route, 0, picked, 1, route.length);
+        return new Flight(servicePoint, recsOf(recs, route), legMoves.subset(picked));
+    }
+
+    private static List<MedDispatchRec> recsOf(List<MedDispatchRec> recs,
+                                               int[] route) {
+        List<MedDispatchRec> picked = new ArrayList<>(route.length);
+        for (int stop : route) picked.add(recs.get(stop - 1));
+        return picked;
+    }
+
+    // Service point first, then the deliveries of recs in order
+    private static List<DeliveryTarget> routeTargets(DroneServicePoint servicePoint,
+                                                     List<MedDispatchRec> recs) {
+        List<DeliveryTarget> targets = new ArrayList<>(recs.size() + 1);
+        targets.add(new DeliveryTarget(-1, servicePoint.location()));
+        for (MedDispatchRec rec : recs) {
+            targets.add(new DeliveryTarget(rec.id(), rec.delivery()));
+        }
+        return targets;
     }
 
     private double findMinimumMaxCostReq(List<MedDispatchRec> medDispatchRecs) {
@@ -610,177 +1103,35 @@ public class PathPlanningServiceImpl implements PathPlanningService {
         return maxCostReq;
     }
 
-    private Optional<Drone> estimateIfDroneCanFly(Set<String> ids, int estMoves) {
-        if (ids == null) return Optional.empty(); // no drones at this service point
-
-        for (String id : ids) {
-//            if (droneUsed.contains(id)) continue; // skip already assigned drones
-
-            Drone d = droneQueriesService.getDroneDetails(id);
-            int maxMoves = d.capability().maxMoves();
-
-            // Found a drone that can handle this route
-            if (maxMoves >= estMoves) return Optional.of(d);
-        }
-
-        // None found
-        return Optional.empty();
-    }
-
-
-    private List<List<MedDispatchRec>> splitIfTooLarge(
-            List<MedDispatchRec> medDispatchRecs) {
-
-        int n = medDispatchRecs.size();
-        int groupSize = (int) Math.ceil((double)n / 2);
-        List<List<MedDispatchRec>> result = new ArrayList<>();
-
-        for (int i = 0; i < n; i += groupSize) {
-            result.add(medDispatchRecs.subList(i, Math.min(i + groupSize, n)));
-        }
-        return result;
-    }
-
     List<List<MedDispatchRec>> splitByDate(List<MedDispatchRec> medDispatchRecs) {
 
         // Group by date
        Map<Optional<LocalDate>, List<MedDispatchRec>> grouped =
                 medDispatchRecs.stream()
                         .collect(Collectors.groupingBy(
-                                rec -> Optional.ofNullable(rec.date())
+                                rec -> Optional.ofNullable(rec.date()),
+                                LinkedHashMap::new,
+                                Collectors.toList()
                         ));
 
-        // Return only the grouped lists
+        // Return only the grouped lists, in order of first appearance
         return new ArrayList<>(grouped.values());
     }
 
 
-    /**
-     * For each other service point: Count how many deliveries are closer to it
-     * than to the current one. And select the one with the highest count (or
-     * largest average distance advantage).
-     * @param medDispatchRecs list of dispatches that are too large which
-     *                        violated one of maxMove or maxCost
-     * @param bestServicePoint the best service point that was chosen earlier
-     *                        with the list of medDIspatchRecs
-     * @return splited dispatches
-     */
-
-    private List<List<MedDispatchRec>> splitByAlternativeServicePoint(
-            List<MedDispatchRec> medDispatchRecs,
-            Position bestServicePoint,
-            List<DroneServicePoint> servicePoints
-    ){
-        if (medDispatchRecs.size()<2)
-            throw new IllegalArgumentException("Cannot split, request can't " +
-                    "be fulfilled");
-
-        DroneServicePoint altSP = null;
-        int maxCount = 0;
-
-        for (DroneServicePoint sp : servicePoints) {
-            if (sp.location().equals(bestServicePoint)) continue;
-
-            int closerCount = 0;
-            for (MedDispatchRec rec : medDispatchRecs) {
-                double distFromBestSP = geometryService.euclidianDistance(
-                        rec.delivery(), bestServicePoint);
-                double distFromOtherSP = geometryService.euclidianDistance(
-                        rec.delivery(), sp.location());
-                if (distFromOtherSP < distFromBestSP) closerCount++;
-            }
-
-            if (closerCount > maxCount) {
-                maxCount = closerCount;
-                altSP = sp;
-            }
-        }
-
-        // If no alternative SP found, fall back and just split into two
-        if (altSP == null) {
-            return splitIfTooLarge(medDispatchRecs);
-        }
-
-        // Partition based on which SP each delivery is closer to
-        List<MedDispatchRec> groupA = new ArrayList<>();
-        List<MedDispatchRec> groupB = new ArrayList<>();
-
-        for (MedDispatchRec rec : medDispatchRecs) {
-            double dBest = geometryService.euclidianDistance(
-                    rec.delivery(), bestServicePoint);
-            double dOther = geometryService.euclidianDistance(
-                    rec.delivery(), altSP.location());
-            if (dBest < dOther) groupA.add(rec);
-            else groupB.add(rec);
-        }
-
-        // Avoid empty groups
-        if (groupA.isEmpty() || groupB.isEmpty()) {
-            return splitIfTooLarge(medDispatchRecs);
-        }
-
-        return List.of(groupA, groupB);
-    }
-
-
-    private List<List<MedDispatchRec>> splitByTemperature(
-            List<MedDispatchRec> medDispatchRecs) {
-        List<MedDispatchRec> heat = new ArrayList<>();
-        List<MedDispatchRec> cool = new ArrayList<>();
-        List<MedDispatchRec> neutral = new ArrayList<>();
-
-        for (MedDispatchRec r : medDispatchRecs) {
-            if (r.requirements().heating()) heat.add(r);
-            else if (r.requirements().cooling()) cool.add(r);
-            else neutral.add(r);
-        }
-
-        if (heat.isEmpty() && cool.isEmpty()) return
-                List.of(medDispatchRecs); // nothing to split
-
-        // Compute midpoints (fallback to centroid of all if group empty)
-        Position heatMid = heat.isEmpty() ?
-                centroid(medDispatchRecs) : centroid(heat);
-        Position coolMid = cool.isEmpty() ?
-                centroid(medDispatchRecs) : centroid(cool);
-
-        for (MedDispatchRec r : neutral) {
-            double dh = geometryService.
-                    euclidianDistance(r.delivery(), heatMid);
-            double dc = geometryService.
-                    euclidianDistance(r.delivery(), coolMid);
-            if (cool.isEmpty() || (!heat.isEmpty() && dh <= dc))
-                heat.add(r);
-            else cool.add(r);
-        }
-
-        List<List<MedDispatchRec>> groups = new ArrayList<>();
-        if (!heat.isEmpty()) groups.add(heat);
-        if (!cool.isEmpty()) groups.add(cool);
-        return groups;
-    }
-
-    private Position centroid(List<MedDispatchRec> list) {
-        if (list.isEmpty()) return new Position(0.,0.);
-        double sx=0, sy=0;
-        for (MedDispatchRec r: list) {
-            sx += r.delivery().lng();
-            sy += r.delivery().lat();
-        }
-        return new Position(sx/list.size(), sy/list.size());
-    }
-
-
-
-    private int estimateTotalMove(List<DeliveryTarget> deliveryTargets){
+    private int estimateTotalMove(List<DeliveryTarget> deliveryTargets,
+                                  DistanceMatrix legMoves){
+        MoveCostEstimator estimator = moveCostEstimator().withLegMoves(legMoves);
         int cost = 0;
         for (int i = 0; i < deliveryTargets.size()-1; i++){
-            cost += moveCostEstimator.estimateMove(
+            cost += estimator.estimateMove(
                     deliveryTargets.get(i).delivery(),
                     deliveryTargets.get(i+1).delivery());
+            // hover to deliver
+            cost += 1;
         }
         // drone return
-        cost += moveCostEstimator.estimateMove(deliveryTargets.getLast().delivery(),
+        cost += estimator.estimateMove(deliveryTargets.getLast().delivery(),
                 deliveryTargets.getFirst().delivery());
         return cost;
     }
@@ -789,17 +1140,35 @@ public class PathPlanningServiceImpl implements PathPlanningService {
             List<DeliveryTarget> deliveryRoute,
             List<Region> restrictedRegion)
     {
-        List<Delivery> deliveries = new ArrayList<>();
-        int totalMove = 0;
+        return planFlightPathSingleDrone(deliveryRoute, restrictedRegion,
+                new PlanMemo(), System.nanoTime() + deadlineMs * 1_000_000);
+    }
 
-        for (int i = 0; i < deliveryRoute.size()-1; i++) {
+    /** As above, reusing legs already planned for this request */
+    private DeliveryWTotalMove planFlightPathSingleDrone(
+            List<DeliveryTarget> deliveryRoute,
+            List<Region> restrictedRegion,
+            PlanMemo memo,
+            long deadline)
+    {
+        // Every leg starts at its stop, not where the last one ended, so
+        // all legs and the return leg are planned at once
+        int stops = deliveryRoute.size();
+        List<Callable<PositionsWTotalMove>> legs = new ArrayList<>();
+        for (int i = 0; i < stops; i++) {
             Position start = deliveryRoute.get(i).delivery();
-            Position end = deliveryRoute.get(i + 1).delivery();
+            Position end = deliveryRoute.get((i + 1) % stops).delivery();
+            legs.add(() -> memo.leg(start, end,
+                    (a, b) -> planLeg(a, b, restrictedRegion, deadline)));
+        }
+        List<PositionsWTotalMove> legPaths =
+                ConcurrentPlanning.invokeAll(legs, parallelism());
+
+        List<Delivery> deliveries = new ArrayList<>();
+        int totalMove = 0;
 
-            // Use A* to find path between each point of deliveryRoute
-            PositionsWTotalMove flightPathWMove = planPath(
-                    start, end, restrictedRegion
-            );
+        for (int i = 0; i < stops - 1; i++) {
+            PositionsWTotalMove flightPathWMove = legPaths.get(i);
             List<Position> flightPath = flightPathWMove.positions();
             totalMove += flightPathWMove.totalMove();
 
@@ -813,17 +1182,18 @@ public class PathPlanningServiceImpl implements PathPlanningService {
         }
 
         // return to servicePoint
-        PositionsWTotalMove returnFlightWMove =
-                planPath(
-                        deliveryRoute.getLast().delivery(),
-                        deliveryRoute.getFirst().delivery(),
-                        restrictedRegion);
+        PositionsWTotalMove returnFlightWMove = legPaths.getLast();
         List<Position> returnPath = returnFlightWMove.positions();
         totalMove += returnFlightWMove.totalMove();
 
         deliveries.add(new Delivery(-1, returnPath));
 
-        return new DeliveryWTotalMove(totalMove, deliveries);
+        // a bound on every leg bounds the flight; NaN if a leg has none
+        double bound = 1.0;
+        for (PositionsWTotalMove leg : legPaths) {
+            bound = Math.max(bound, leg.suboptimality());
+        }
+        return new DeliveryWTotalMove(totalMove, deliveries, bound);
     }
 
     /**
@@ -835,21 +1205,60 @@ public class PathPlanningServiceImpl implements PathPlanningService {
      */
     public List<DeliveryTarget> TSPGreedyNN (Position startPos,
                                              List<DeliveryTarget> deliveries){
-        int n = deliveries.size();
-        if (n == 0) throw new IllegalArgumentException("No positions found");
+        List<Position> stops = new ArrayList<>();
+        stops.add(startPos);
+        deliveries.forEach(target -> stops.add(target.delivery()));
+        return TSPGreedyNN(startPos, deliveries, DistanceMatrix.straightLine(stops));
+    }
 
-        List<DeliveryTarget> deliveryOrder = new ArrayList<>();
-        boolean[] visited = new boolean[n]; // not including startPos
-        deliveryOrder.add(new DeliveryTarget(-1, startPos));
-        for (int i=0; i<n; i++){ // not including startPos
-            Position lastVisited = deliveryOrder.get(i).delivery();
-            double minDistance =  Double.MAX_VALUE;
-            int minIndex=-1;
-            for  (int j= 0; j<deliveries.size(); j++){
+    /**
+     * Nearest neighbour by the given move counts
+     * @param legMoves moves between stops; stop 0 is startPos, stop i + 1
+     *                 is deliveries.get(i)
+     */
+    public List<DeliveryTarget> TSPGreedyNN (Position startPos,
+                                             List<DeliveryTarget> deliveries,
+                                             DistanceMatrix legMoves){
+        if (deliveries.isEmpty()) throw new IllegalArgumentException("No positions found");
+        return toRoute(startPos, deliveries, greedyTour(legMoves));
+    }
+
+    /**
+     * Exact tour for batches of up to exactTourMax deliveries; above that
+     * a greedy tour, improved with 2-opt and Or-opt moves for at most
+     * tourBudgetMs
+     * @param legMoves moves between stops; stop 0 is startPos, stop i + 1
+     *                 is deliveries.get(i)
+     * @return delivery path, starting at startPos
+     */
+    public List<DeliveryTarget> planDeliveryRoute (Position startPos,
+                                                   List<DeliveryTarget> deliveries,
+                                                   DistanceMatrix legMoves){
+        if (deliveries.isEmpty()) throw new IllegalArgumentException("No positions found");
+        return toRoute(startPos, deliveries, planTour(legMoves));
+    }
+
+    private int[] planTour(DistanceMatrix legMoves){
+        if (legMoves.size() - 1 <= Math.min(exactTourMax, HeldKarp.MAX_DELIVERIES)) {
+            return HeldKarp.solve(legMoves);
+        }
+        return TourImprover.improve(legMoves, greedyTour(legMoves),
+                tourBudgetMs * 1_000_000L);
+    }
+
+    // Stop indices in nearest neighbour order, from stop 0
+    private int[] greedyTour(DistanceMatrix legMoves){
+        int n = legMoves.size();
+        int[] tour = new int[n];
+        boolean[] visited = new boolean[n];
+        visited[0] = true;
+        for (int i = 1; i < n; i++){
+            int lastVisited = tour[i - 1];
+            double minDistance = Double.MAX_VALUE;
+            int minIndex = -1;
+            for (int j = 1; j < n; j++){
                 if (!visited[j]){
-                    Position cur = deliveries.get(j).delivery();
-                    double distance  =
-                            geometryService.euclidianDistance(lastVisited, cur);
+                    double distance = legMoves.moves(lastVisited, j);
                     if (distance < minDistance){
                         minDistance = distance;
                         minIndex = j;
@@ -857,10 +1266,22 @@ public class PathPlanningServiceImpl implements PathPlanningService {
                 }
             }
             visited[minIndex] = true;
-            deliveryOrder.add(deliveries.get(minIndex));
+            tour[i] = minIndex;
+        }
+        return tour;
+    }
+
+    private List<DeliveryTarget> toRoute(Position startPos,
+                                         List<DeliveryTarget> deliveries,
+                                         int[] tour){
+        List<DeliveryTarget> deliveryOrder = new ArrayList<>();
+        deliveryOrder.add(new DeliveryTarget(-1, startPos));
+        for (int i = 1; i < tour.length; i++){
+            deliveryOrder.add(deliveries.get(tour[i] - 1));
         }
         return deliveryOrder;
     }
+
     @Override
     public GeoJsonFeatureCollection calcDeliveryPathAsGeoJson (
             List<MedDispatchRec> medDispatchRecs)
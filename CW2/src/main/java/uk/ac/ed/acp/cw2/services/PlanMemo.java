@@ -0,0 +1,129 @@
+package uk.ac.ed.acp.cw2.services;
+
+import uk.ac.ed.acp.cw2.data.Drone;
+import uk.ac.ed.acp.cw2.data.MedDispatchRec;
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.dto.PositionsWTotalMove;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Memo table for one calcDeliveryPath request. Routing asks for the drones
+ * able to carry the same sets of dispatches many times over, and a flight
+ * split after planning flies many of the same legs again, so both are
+ * kept here with hit counts. Nothing outlives the request, so a new
+ * snapshot never sees stale entries. Safe to share between threads: a leg
+ * asked for by several threads at once is planned by the first, and the
+ * rest wait for its path.
+ */
+public class PlanMemo {
+    private record AvailabilityKey(int servicePointId, List<Integer> dispatchIds) {}
+
+    private record LegKey(long start, long goal) {}
+
+    // A leg from the exact start, planned or being planned
+    private record Leg(Position start, CompletableFuture<PositionsWTotalMove> path) {}
+
+    private final Map<AvailabilityKey, List<Drone>> availability = new ConcurrentHashMap<>();
+    private final Map<LegKey, Leg> legs = new ConcurrentHashMap<>();
+    private final AtomicLong availabilityHits = new AtomicLong();
+    private final AtomicLong availabilityMisses = new AtomicLong();
+    private final AtomicLong legHits = new AtomicLong();
+    private final AtomicLong legMisses = new AtomicLong();
+
+    /**
+     * Drones at a service point able to carry all of recs, whatever the
+     * moves. Keyed by the set of dispatch ids, so order does not matter.
+     */
+    public List<Drone> availableDrones(int servicePointId, List<MedDispatchRec> recs,
+                                       Supplier<List<Drone>> lookup) {
+        List<Integer> ids = recs.stream().map(MedDispatchRec::id).sorted().toList();
+        AvailabilityKey key = new AvailabilityKey(servicePointId, ids);
+        List<Drone> drones = availability.get(key);
+        if (drones != null) {
+            availabilityHits.incrementAndGet();
+            return drones;
+        }
+        availabilityMisses.incrementAndGet();
+        drones = List.copyOf(lookup.get());
+        availability.putIfAbsent(key, drones);
+        return drones;
+    }
+
+    /**
+     * One planned leg, keyed by the lattice points of its ends. A path
+     * cached for a start that only shares its lattice point is not reused,
+     * since every path begins at the exact start.
+     * @return a copy the caller may change
+     */
+    public PositionsWTotalMove leg(Position start, Position goal,
+                                   BiFunction<Position, Position, PositionsWTotalMove> planner) {
+        LegKey key = new LegKey(Lattice.key(start), Lattice.key(goal));
+        Leg mine = new Leg(start, new CompletableFuture<>());
+        Leg leg = legs.compute(key, (k, cached) ->
+                cached != null && cached.start().equals(start) ? cached : mine);
+        PositionsWTotalMove path;
+        if (leg == mine) {
+            legMisses.incrementAndGet();
+            try {
+                path = planner.apply(start, goal);
+            } catch (RuntimeException | Error e) {
+                // callers waiting on it fail the same way; later ones plan again
+                legs.remove(key, mine);
+                mine.path().completeExceptionally(e);
+                throw e;
+            }
+            // planned legs are not changed once cached; callers get copies
+            path = new PositionsWTotalMove(path.totalMove(),
+                    List.copyOf(path.positions()), path.suboptimality());
+            mine.path().complete(path);
+        } else {
+            legHits.incrementAndGet();
+            path = await(leg.path());
+        }
+        return new PositionsWTotalMove(path.totalMove(),
+                new ArrayList<>(path.positions()), path.suboptimality());
+    }
+
+    private static PositionsWTotalMove await(CompletableFuture<PositionsWTotalMove> path) {
+        try {
+            return path.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+    }
+
+    public long availabilityHits() {
+        return availabilityHits.get();
+    }
+
+    public long availabilityMisses() {
+        return availabilityMisses.get();
+    }
+
+    public long legHits() {
+        return legHits.get();
+    }
+
+    public long legMisses() {
+        return legMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "availability "
+                + PlannerStats.rate(availabilityHits(), availabilityMisses())
+                + ", legs " + PlannerStats.rate(legHits(), legMisses());
+    }
+}
@@ -0,0 +1,61 @@
+package uk.ac.ed.acp.cw2.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters over every leg the planner has searched since it started, to
+ * see how much search the shortcuts in front of it save. Safe to share
+ * between threads.
+ */
+public class PlannerStats {
+    private final AtomicLong straightHits = new AtomicLong();
+    private final AtomicLong straightMisses = new AtomicLong();
+    private final AtomicLong expansions = new AtomicLong();
+    private final AtomicLong edgeChecks = new AtomicLong();
+
+    /** A leg flown as the direct lattice walk, with no search */
+    void straightHit() {
+        straightHits.incrementAndGet();
+    }
+
+    /** A leg whose direct walk was blocked, so it was searched */
+    void straightMiss() {
+        straightMisses.incrementAndGet();
+    }
+
+    /** Work of one lattice search */
+    void searched(long expanded, long checked) {
+        expansions.addAndGet(expanded);
+        edgeChecks.addAndGet(checked);
+    }
+
+    public long straightHits() {
+        return straightHits.get();
+    }
+
+    public long straightMisses() {
+        return straightMisses.get();
+    }
+
+    public long expansions() {
+        return expansions.get();
+    }
+
+    /** Moves checked against the regions by the lattice searches */
+    public long edgeChecks() {
+        return edgeChecks.get();
+    }
+
+    static String rate(long hits, long misses) {
+        long total = hits + misses;
+        return String.format("%d/%d hits (%.0f%%)", hits, total,
+                total == 0 ? 0.0 : 100.0 * hits / total);
+    }
+
+    @Override
+    public String toString() {
+        return "straight line " + rate(straightHits(), straightMisses())
+                + ", " + edgeChecks() + " edge checks over "
+                + expansions() + " expansions";
+    }
+}
@@ -3,6 +3,7 @@ package uk.ac.ed.acp.cw2;
 import org.junit.jupiter.api.Test;
 
 import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
 import uk.ac.ed.acp.cw2.data.Region;
 import uk.ac.ed.acp.cw2.services.GeometryService;
 import uk.ac.ed.acp.cw2.services.GeometryServiceImpl;
@@ -62,4 +63,49 @@ class GeometryServiceImplTest {
         ));
         assertThat(geo.isInRegion(new Position(1.0, 0.5), square)).isTrue();
     }
+
+    // Ray cast over the boxed vertices, as isInRegion did before regions
+    // were prepared
+    private boolean rayCast(Position p, Region region) {
+        boolean inRegion = false;
+        List<Position> v = region.vertices();
+        for (int i = 0; i < v.size() - 1; i++) {
+            Position a = v.get(i), b = v.get(i + 1);
+            if (geo.pointOnEdge(p, a, b)) return true;
+            if (((p.lat() < a.lat()) != (p.lat() < b.lat())) &&
+                    (p.lng() < b.lng() + (p.lat() - b.lat())
+                            * ((a.lng() - b.lng()) / (a.lat() - b.lat())))) {
+                inRegion = !inRegion;
+            }
+        }
+        return inRegion;
+    }
+
+    @Test
+    void isInRegion_preparedMatchesRayCast() {
+        var region = new Region("bristol", List.of(
+                new Position(-3.189543485641479, 55.94552313663306),
+                new Position(-3.189382553100586, 55.94553214854692),
+                new Position(-3.189259171485901, 55.94544803726933),
+                new Position(-3.1892001628875732, 55.94533688994374),
+                new Position(-3.189194798469543, 55.94519570234043),
+                new Position(-3.189135789871216, 55.94511759833873),
+                new Position(-3.188138008117676, 55.9452738061846),
+                new Position(-3.1885510683059692, 55.946105902745614),
+                new Position(-3.1895381212234497, 55.94555918427592),
+                new Position(-3.189543485641479, 55.94552313663306)
+        ));
+        var prepared = PreparedRegion.of(region);
+        var random = new java.util.Random(7);
+
+        for (int i = 0; i < 20_000; i++) {
+            var p = new Position(-3.1897 + random.nextDouble() * 0.0018,
+                    55.9450 + random.nextDouble() * 0.0012);
+            assertThat(geo.isInRegion(p, prepared)).isEqualTo(rayCast(p, region));
+        }
+        // vertices and edge points count as inside
+        for (Position vertex : region.vertices()) {
+            assertThat(geo.isInRegion(vertex, prepared)).isTrue();
+        }
+    }
 }
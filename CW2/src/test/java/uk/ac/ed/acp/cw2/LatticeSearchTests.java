@@ -0,0 +1,625 @@
+package uk.ac.ed.acp.cw2;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.Region;
+import uk.ac.ed.acp.cw2.pathfinding.AnytimeSearch;
+import uk.ac.ed.acp.cw2.pathfinding.BidirectionalSearch;
+import uk.ac.ed.acp.cw2.pathfinding.CellGrid;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceField;
+import uk.ac.ed.acp.cw2.pathfinding.LandmarkTable;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+import uk.ac.ed.acp.cw2.pathfinding.NodeTable;
+import uk.ac.ed.acp.cw2.pathfinding.OpenSet;
+import uk.ac.ed.acp.cw2.pathfinding.ParallelSearch;
+import uk.ac.ed.acp.cw2.pathfinding.PlanarGeometry;
+import uk.ac.ed.acp.cw2.pathfinding.RestrictedAirspace;
+import uk.ac.ed.acp.cw2.pathfinding.SearchBounds;
+import uk.ac.ed.acp.cw2.pathfinding.ServicePointFields;
+import uk.ac.ed.acp.cw2.services.GeometryService;
+import uk.ac.ed.acp.cw2.services.GeometryServiceImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the primitive search structures in the pathfinding package.
+ */
+public class LatticeSearchTests {
+    private final GeometryService geometry = new GeometryServiceImpl();
+
+    // --------------------- Lattice ---------------------
+
+    @Test
+    void testLatticeKey_roundTripsToSixDecimals() {
+        Position p = new Position(-3.1863580788986368, 55.94468066708487);
+        Position snapped = Lattice.toPosition(Lattice.key(p));
+
+        assertEquals(-3.186358, snapped.lng());
+        assertEquals(55.944681, snapped.lat());
+        assertEquals(Lattice.key(p), Lattice.key(snapped));
+    }
+
+    @Test
+    void testLatticeMovesAtLeast_exactAlongHeadingsAndNeverBeaten() {
+        for (int dir = 0; dir < Lattice.DIRECTIONS; dir++) {
+            assertEquals(7, Lattice.movesAtLeast(7 * Lattice.DX[dir], 7 * Lattice.DY[dir]), 1e-9);
+        }
+        // halfway between two headings costs the most over the straight line
+        double half = Math.toRadians(Lattice.ANGLE_CONSTRAINT / 2);
+        assertEquals(Lattice.MAX_DETOUR, Lattice.movesAtLeast(
+                Lattice.STEP * Math.cos(half), Lattice.STEP * Math.sin(half)), 1e-9);
+
+        Random random = new Random(23);
+        for (int i = 0; i < 10_000; i++) {
+            // any walk of n moves ends at least n moves away by this bound
+            int n = 1 + random.nextInt(12);
+            double x = 0, y = 0;
+            for (int k = 0; k < n; k++) {
+                int dir = random.nextInt(Lattice.DIRECTIONS);
+                x += Lattice.DX[dir];
+                y += Lattice.DY[dir];
+            }
+            double bound = Lattice.movesAtLeast(x, y);
+            double straight = Math.hypot(x, y) / Lattice.STEP;
+            assertTrue(bound <= n + 1e-9, bound + " > " + n);
+            assertTrue(bound >= straight - 1e-9);
+            assertTrue(bound <= straight * Lattice.MAX_DETOUR + 1e-9);
+        }
+    }
+
+    // --------------------- NodeTable ---------------------
+
+    @Test
+    void testNodeTable_keepsIdsAcrossGrowth() {
+        NodeTable nodes = new NodeTable(16);
+        int n = 10_000;
+        for (int i = 0; i < n; i++) {
+            int id = nodes.getOrAdd(Lattice.key(-3.19 + i * 0.000001, 55.94));
+            nodes.setG(id, i);
+        }
+
+        assertEquals(n, nodes.size());
+        for (int i = 0; i < n; i++) {
+            int id = nodes.find(Lattice.key(-3.19 + i * 0.000001, 55.94));
+            assertEquals(i, id);
+            assertEquals(i, nodes.g(id));
+            assertEquals(-1, nodes.parent(id));
+            assertFalse(nodes.isClosed(id));
+        }
+        assertEquals(-1, nodes.find(Lattice.key(0.0, 0.0)));
+    }
+
+    // --------------------- OpenSet ---------------------
+
+    @Test
+    void testOpenSet_decreaseKeyReordersWithoutDuplicates() {
+        OpenSet open = new OpenSet(4);
+        for (int id = 0; id < 100; id++) {
+            open.push(id, 1000 - id);
+        }
+        // decrease-key on an existing id must not grow the heap
+        open.push(42, 1.0);
+        open.push(7, 2.0);
+        assertEquals(100, open.size());
+
+        assertEquals(42, open.poll());
+        assertEquals(7, open.poll());
+        double last = Double.NEGATIVE_INFINITY;
+        while (!open.isEmpty()) {
+            double f = open.peekF();
+            assertTrue(f >= last);
+            last = f;
+            int id = open.poll();
+            assertFalse(open.contains(id));
+        }
+    }
+
+    // --------------------- RestrictedAirspace ---------------------
+
+    private static final List<Region> GEORGE_SQUARE = List.of(
+            new Region("George Square Area", List.of(
+                    new Position(-3.190578818321228, 55.94402412577528),
+                    new Position(-3.1899887323379517, 55.94284650540911),
+                    new Position(-3.187097311019897, 55.94328811724263),
+                    new Position(-3.187682032585144, 55.944477740393744),
+                    new Position(-3.190578818321228, 55.94402412577528)
+            )),
+            new Region("Bayes Central Area", List.of(
+                    new Position(-3.1876927614212036, 55.94520696732767),
+                    new Position(-3.187555968761444, 55.9449621408666),
+                    new Position(-3.186981976032257, 55.94505676722831),
+                    new Position(-3.1872327625751495, 55.94536993377657),
+                    new Position(-3.1874459981918335, 55.9453361389472),
+                    new Position(-3.1873735785484314, 55.94519344934259),
+                    new Position(-3.1875935196876526, 55.94515665035927),
+                    new Position(-3.187624365091324, 55.94521973430925),
+                    new Position(-3.1876927614212036, 55.94520696732767)
+            ))
+    );
+
+    @Test
+    void testAirspace_gridAndEdgeIndexAgreeWithBruteForce() {
+        RestrictedAirspace airspace = new RestrictedAirspace(GEORGE_SQUARE);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 50_000; i++) {
+            double x = -3.1915 + random.nextDouble() * 0.0055;
+            double y = 55.9420 + random.nextDouble() * 0.0040;
+            long next = Lattice.neighbour(x, y, random.nextInt(Lattice.DIRECTIONS));
+            double nx = Lattice.lng(next);
+            double ny = Lattice.lat(next);
+
+            boolean expected = false;
+            for (Region region : GEORGE_SQUARE) {
+                expected |= geometry.isInRegion(new Position(nx, ny), region);
+                List<Position> v = region.vertices();
+                for (int k = 0; k < v.size() - 1; k++) {
+                    expected |= PlanarGeometry.segmentsIntersect(x, y, nx, ny,
+                            v.get(k).lng(), v.get(k).lat(),
+                            v.get(k + 1).lng(), v.get(k + 1).lat());
+                }
+            }
+
+            String move = "Move " + x + "," + y + " -> " + nx + "," + ny;
+            assertEquals(expected, airspace.exactMoveBlocked(x, y, nx, ny), move);
+            assertEquals(expected, airspace.moveBlocked(x, y, nx, ny), move);
+        }
+    }
+
+    private static Region box(String name, double x0, double y0, double x1, double y1) {
+        return new Region(name, List.of(new Position(x0, y0), new Position(x1, y0),
+                new Position(x1, y1), new Position(x0, y1), new Position(x0, y0)));
+    }
+
+    // four walls around a courtyard from 0.002 to 0.004 on both axes
+    private static final List<Region> COURTYARD = List.of(
+            box("south", 0.0015, 0.0015, 0.0045, 0.002),
+            box("north", 0.0015, 0.004, 0.0045, 0.0045),
+            box("west", 0.0015, 0.0015, 0.002, 0.0045),
+            box("east", 0.004, 0.0015, 0.0045, 0.0045));
+
+    @Test
+    void testAirspace_detectsGoalsCutOffByRegions() {
+        RestrictedAirspace airspace = new RestrictedAirspace(COURTYARD);
+        Position outside = new Position(0.0, 0.0);
+        double radius = Lattice.STEP;
+
+        assertTrue(airspace.goalCutOff(outside, new Position(0.003, 0.003), radius));
+        assertFalse(airspace.goalCutOff(outside, new Position(0.005, 0.003), radius));
+        assertFalse(airspace.goalCutOff(new Position(0.0025, 0.0035),
+                new Position(0.003, 0.003), radius));
+        // within reach of the open air just outside the south wall
+        assertFalse(airspace.goalCutOff(outside, new Position(0.003, 0.0016), radius));
+
+        assertTrue(airspace.pointEnclosed(0.003, 0.0043, radius));
+        assertFalse(airspace.pointEnclosed(0.003, 0.0046, radius));
+        assertFalse(airspace.pointEnclosed(0.003, 0.003, radius));
+    }
+
+    @Test
+    void testAirspace_slitNarrowerThanCellStaysOpen() {
+        // the courtyard's south wall split by a slit a fifteenth of a STEP wide
+        List<Region> walls = List.of(
+                box("south-west", 0.0015, 0.0015, 0.003, 0.002),
+                box("south-east", 0.00301, 0.0015, 0.0045, 0.002),
+                box("north", 0.0015, 0.004, 0.0045, 0.0045),
+                box("west", 0.0015, 0.0015, 0.002, 0.0045),
+                box("east", 0.004, 0.0015, 0.0045, 0.0045));
+        RestrictedAirspace airspace = new RestrictedAirspace(walls);
+        Position start = new Position(0.003005, 0.0010);
+        Position goal = new Position(0.003005, 0.0030);
+
+        assertFalse(airspace.goalCutOff(start, goal, Lattice.STEP));
+        assertFalse(airspace.goalCutOff(new Position(0.003005, 0.0018), goal, Lattice.STEP));
+        // due north keeps to the middle of the slit, so a lattice walk gets through
+        double x = start.lng(), y = start.lat();
+        while (Math.hypot(goal.lng() - x, goal.lat() - y) >= Lattice.STEP) {
+            long next = Lattice.neighbour(x, y, 4);
+            assertFalse(airspace.moveBlocked(x, y, Lattice.lng(next), Lattice.lat(next)));
+            x = Lattice.lng(next);
+            y = Lattice.lat(next);
+        }
+    }
+
+    // --------------------- AnytimeSearch ---------------------
+
+    private static AnytimeSearch anytime(RestrictedAirspace airspace,
+                                         Position start, Position goal) {
+        return anytime(airspace, start, goal, AnytimeSearch.Successors.STEPS);
+    }
+
+    private static AnytimeSearch anytime(RestrictedAirspace airspace, Position start,
+                                         Position goal, AnytimeSearch.Successors successors) {
+        return new AnytimeSearch(airspace, start, goal, Lattice.STEP,
+                SearchBounds.around(airspace, start, goal, 2_500_000),
+                (x, y) -> Math.max(0, Math.hypot(goal.lng() - x, goal.lat() - y)
+                        / Lattice.STEP - 1), successors);
+    }
+
+    // Every move of the route is one STEP long and clear of the regions
+    private static void assertLegalRoute(AnytimeSearch search,
+                                         RestrictedAirspace airspace, Position start) {
+        NodeTable nodes = search.nodes();
+        int node = search.goalNode();
+        int moves = 0;
+        while (nodes.parent(node) >= 0) {
+            int parent = nodes.parent(node);
+            double x = parent == 0 ? start.lng() : Lattice.lng(nodes.key(parent));
+            double y = parent == 0 ? start.lat() : Lattice.lat(nodes.key(parent));
+            double nx = Lattice.lng(nodes.key(node)), ny = Lattice.lat(nodes.key(node));
+            assertEquals(Lattice.STEP, Math.hypot(nx - x, ny - y), 2e-6);
+            assertFalse(airspace.moveBlocked(x, y, nx, ny));
+            node = parent;
+            moves++;
+        }
+        assertEquals(0, node);
+        assertEquals(moves, nodes.g(search.goalNode()));
+    }
+
+    @Test
+    void testAnytimeSearch_improvesRouteWithinBound() {
+        RestrictedAirspace airspace = new RestrictedAirspace(
+                List.of(box("wall", 0.0010, -0.0010, 0.0012, 0.0010)));
+        Position start = new Position(0.0, 0.0);
+        Position goal = new Position(0.0025, 0.0);
+
+        AnytimeSearch quick = anytime(airspace, start, goal);
+        assertTrue(quick.search(5.0, System.nanoTime()));
+        AnytimeSearch full = anytime(airspace, start, goal);
+        assertTrue(full.search(5.0, System.nanoTime() + 60_000_000_000L));
+
+        double quickMoves = quick.nodes().g(quick.goalNode());
+        double fullMoves = full.nodes().g(full.goalNode());
+        System.out.printf("first pass: %.0f moves (bound %.2f, %d expansions), "
+                        + "%d passes: %.0f moves (bound %.2f, %d expansions)%n",
+                quickMoves, quick.bound(), quick.expansions(),
+                full.passes(), fullMoves, full.bound(), full.expansions());
+
+        assertEquals(1, quick.passes());
+        assertTrue(quick.bound() >= 1.0 && quick.bound() <= 5.0);
+        assertEquals(1.0, full.bound());
+        assertTrue(fullMoves <= quickMoves);
+        assertTrue(quickMoves <= quick.bound() * fullMoves + 1e-9);
+        assertLegalRoute(quick, airspace, start);
+        assertLegalRoute(full, airspace, start);
+    }
+
+    @Test
+    void testAnytimeSearch_lazyEdgesCheckFewerMoves() {
+        RestrictedAirspace airspace = new RestrictedAirspace(GEORGE_SQUARE);
+        Position start = new Position(-3.1863580788986368, 55.94468066708487);
+        List<Position> goals = List.of(new Position(-3.1915, 55.9425),
+                new Position(-3.1890, 55.9420), new Position(-3.1880, 55.9455),
+                new Position(-3.1900, 55.9450));
+
+        for (double weight : new double[]{2.5, 1.0}) {
+            long eagerChecks = 0, lazyChecks = 0;
+            for (Position goal : goals) {
+                AnytimeSearch eager = anytime(airspace, start, goal,
+                        AnytimeSearch.Successors.STEPS);
+                AnytimeSearch lazy = anytime(airspace, start, goal,
+                        AnytimeSearch.Successors.LAZY_STEPS);
+                assertTrue(eager.search(weight, System.nanoTime()));
+                assertTrue(lazy.search(weight, System.nanoTime()));
+
+                assertLegalRoute(lazy, airspace, start);
+                assertTrue(lazy.nodes().g(lazy.goalNode())
+                        <= eager.nodes().g(eager.goalNode()) + 1);
+                eagerChecks += eager.edgeChecks();
+                lazyChecks += lazy.edgeChecks();
+            }
+            System.out.printf("weight %.1f: %d moves checked eagerly, %d lazily%n",
+                    weight, eagerChecks, lazyChecks);
+            assertTrue(lazyChecks < eagerChecks);
+            if (weight > 1) assertTrue(2 * lazyChecks < eagerChecks);
+        }
+    }
+
+    @Test
+    void testAnytimeSearch_lazyEdgesRepairTheOnlyOpening() {
+        // a narrow box round the leg, with two blocks in it: the way past
+        // them runs through a cell first claimed by a move that turns out
+        // blocked when its node is popped
+        RestrictedAirspace airspace = new RestrictedAirspace(List.of(
+                box("b0", 0.0001741, -0.0000599, 0.0002008, -0.0000331),
+                box("b1", 0.0001044, -0.0000069, 0.0001290, 0.0000177)));
+        Position start = new Position(0.0, 0.0);
+        Position goal = new Position(0.0004507, -0.0000528);
+        SearchBounds bounds = new SearchBounds(-0.00003, -0.000081, 0.00058, 0.0000513, 100_000);
+
+        for (AnytimeSearch.Successors successors : AnytimeSearch.Successors.values()) {
+            AnytimeSearch search = new AnytimeSearch(airspace, start, goal, Lattice.STEP, bounds,
+                    (x, y) -> Math.max(0, Math.hypot(goal.lng() - x, goal.lat() - y)
+                            / Lattice.STEP - 1), successors);
+            assertTrue(search.search(1.0, System.nanoTime() + 60_000_000_000L),
+                    successors.toString());
+            System.out.println(successors + ": " + search.nodes().g(search.goalNode())
+                    + " moves, " + search.edgeChecks() + " edge checks");
+            assertLegalRoute(search, airspace, start);
+        }
+    }
+
+    @Test
+    void testAnytimeSearch_runsCrossOpenGroundInFewExpansions() {
+        RestrictedAirspace airspace = new RestrictedAirspace(GEORGE_SQUARE);
+        Position start = new Position(-3.1863580788986368, 55.94468066708487);
+        List<Position> goals = List.of(new Position(-3.1915, 55.9425),
+                new Position(-3.1890, 55.9420), new Position(-3.1880, 55.9455),
+                new Position(-3.1900, 55.9450), new Position(-3.1940, 55.9470));
+
+        for (double weight : new double[]{2.5, 1.0}) {
+            long stepExpansions = 0, runExpansions = 0;
+            for (Position goal : goals) {
+                AnytimeSearch steps = anytime(airspace, start, goal,
+                        AnytimeSearch.Successors.STEPS);
+                AnytimeSearch runs = anytime(airspace, start, goal,
+                        AnytimeSearch.Successors.RUNS);
+                assertTrue(steps.search(weight, System.nanoTime()));
+                assertTrue(runs.search(weight, System.nanoTime()));
+
+                assertLegalRoute(runs, airspace, start);
+                assertTrue(runs.nodes().g(runs.goalNode())
+                        <= steps.nodes().g(steps.goalNode()) + 1);
+                stepExpansions += steps.expansions();
+                runExpansions += runs.expansions();
+            }
+            System.out.printf("weight %.1f: %d expansions in steps, %d in runs%n",
+                    weight, stepExpansions, runExpansions);
+            assertTrue(runExpansions < stepExpansions);
+            if (weight > 1) assertTrue(2 * runExpansions < stepExpansions);
+        }
+    }
+
+    // --------------------- ParallelSearch ---------------------
+
+    @Test
+    void testParallelSearch_workersAgreeOnLegalRoute() {
+        RestrictedAirspace airspace = new RestrictedAirspace(
+                List.of(box("wall", 0.0010, -0.0010, 0.0012, 0.0010)));
+        Position start = new Position(0.0, 0.0);
+        Position goal = new Position(0.0025, 0.0);
+        AnytimeSearch full = anytime(airspace, start, goal);
+        assertTrue(full.search(1.0, System.nanoTime() + 60_000_000_000L));
+        double fewest = full.nodes().g(full.goalNode());
+
+        for (int threads : new int[] {1, 4}) {
+            ParallelSearch search = new ParallelSearch(airspace, start, goal, Lattice.STEP,
+                    SearchBounds.around(airspace, start, goal, 2_500_000),
+                    (x, y) -> Math.max(0, Math.hypot(goal.lng() - x, goal.lat() - y)
+                            / Lattice.STEP - 1), threads);
+            assertTrue(search.search(1.0));
+            List<Position> route = search.route();
+            System.out.printf("%d threads: %d moves (%d expansions), anytime: %.0f moves%n",
+                    threads, route.size() - 1, search.expansions(), fewest);
+
+            assertEquals(start, route.getFirst());
+            for (int i = 1; i < route.size(); i++) {
+                Position a = route.get(i - 1), b = route.get(i);
+                assertEquals(Lattice.STEP, Math.hypot(b.lng() - a.lng(), b.lat() - a.lat()), 2e-6);
+                assertFalse(airspace.moveBlocked(a.lng(), a.lat(), b.lng(), b.lat()));
+            }
+            Position last = route.getLast();
+            assertTrue(Math.hypot(last.lng() - goal.lng(), last.lat() - goal.lat()) < Lattice.STEP);
+            // cells keep the first node to reach them, which depends on the
+            // order the workers get there
+            assertTrue(Math.abs(route.size() - 1 - fewest) <= 2);
+        }
+
+        // cut off: every worker runs dry and the search ends without a route
+        RestrictedAirspace closed = new RestrictedAirspace(
+                List.of(box("cage", 0.0020, -0.0005, 0.0030, 0.0005)));
+        Position caged = new Position(0.0025, 0.0);
+        ParallelSearch none = new ParallelSearch(closed, start, caged, Lattice.STEP,
+                SearchBounds.around(closed, start, caged, 2_500_000),
+                (x, y) -> 0, 4);
+        assertFalse(none.search(1.0));
+        assertFalse(none.budgetSpent());
+    }
+
+    // --------------------- BidirectionalSearch ---------------------
+
+    @Test
+    void testBidirectionalSearch_joinedRouteWithinBoundOfFewestMoves() {
+        RestrictedAirspace airspace = new RestrictedAirspace(
+                List.of(box("wall", 0.0010, -0.0010, 0.0012, 0.0010)));
+        Position start = new Position(0.0, 0.0);
+        Position goal = new Position(0.0025, 0.0);
+        AnytimeSearch full = anytime(airspace, start, goal);
+        assertTrue(full.search(1.0, System.nanoTime() + 60_000_000_000L));
+        double fewest = full.nodes().g(full.goalNode());
+
+        for (double weight : new double[] {1.0, 2.5}) {
+            BidirectionalSearch search = new BidirectionalSearch(airspace, start, goal,
+                    Lattice.STEP, SearchBounds.around(airspace, start, goal, 2_500_000), weight);
+            List<Position> route = search.search();
+            assertNotNull(route);
+            System.out.printf("weight %.1f: %d moves (%d expansions), anytime: %.0f moves%n",
+                    weight, route.size() - 1, search.expansions(), fewest);
+
+            assertEquals(start, route.getFirst());
+            for (int i = 1; i < route.size(); i++) {
+                Position a = route.get(i - 1), b = route.get(i);
+                assertEquals(Lattice.STEP, Math.hypot(b.lng() - a.lng(), b.lat() - a.lat()), 2e-6);
+                assertFalse(airspace.moveBlocked(a.lng(), a.lat(), b.lng(), b.lat()));
+            }
+            Position last = route.getLast();
+            assertTrue(Math.hypot(last.lng() - goal.lng(), last.lat() - goal.lat()) < Lattice.STEP);
+            assertEquals(weight, search.bound());
+            // both keep one node per cell, so allow a move or two either way
+            assertTrue(route.size() - 1 <= weight * fewest + 2);
+        }
+    }
+
+    // --------------------- DistanceField / LandmarkTable ---------------------
+
+    @Test
+    void testDistanceField_goesAroundRegions() {
+        RestrictedAirspace airspace = new RestrictedAirspace(GEORGE_SQUARE);
+        Position west = new Position(-3.1920, 55.9440);
+        Position east = new Position(-3.1855, 55.9440);
+        CellGrid grid = CellGrid.around(airspace, List.of(west, east), Lattice.STEP, 8);
+        DistanceField field = DistanceField.flood(airspace, grid, west);
+
+        double straight = Math.hypot(east.lng() - west.lng(), east.lat() - west.lat())
+                / Lattice.STEP;
+        double moves = field.movesTo(east.lng(), east.lat());
+        System.out.println("straight: " + straight + ", around regions: " + moves);
+        assertTrue(moves >= straight - 1);
+        assertTrue(Double.isNaN(field.movesTo(0, 0)));
+    }
+
+    @Test
+    void testServicePointFields_repairMatchesFreshFlood() {
+        List<Position> servicePoints = List.of(
+                new Position(-3.1863580788986368, 55.94468066708487),
+                new Position(-3.1895, 55.9450));
+        List<Region> withBox = new ArrayList<>(GEORGE_SQUARE);
+        withBox.add(box("Closed for works", -3.1890, 55.9440, -3.1884, 55.9446));
+        RestrictedAirspace before = new RestrictedAirspace(GEORGE_SQUARE);
+        RestrictedAirspace after = new RestrictedAirspace(withBox);
+        assertEquals(1, after.changedSince(before).size());
+
+        ServicePointFields original = new ServicePointFields(before, servicePoints);
+        ServicePointFields added = original.withAirspace(after);
+        ServicePointFields removed = added.withAirspace(before);
+        assertSame(original.grid(), added.grid());
+        assertEquals(1, added.changed().size());
+
+        ServicePointFields floodedAfter = new ServicePointFields(after, servicePoints);
+        assertSameDistances(floodedAfter, added);
+        assertSameDistances(original, removed);
+
+        int repaired = 0, flooded = 0;
+        for (int i = 0; i < servicePoints.size(); i++) {
+            repaired += added.fields().get(i).settledCells();
+            flooded += floodedAfter.fields().get(i).settledCells();
+        }
+        System.out.println("cells settled: repair " + repaired + ", flood " + flooded);
+        assertTrue(repaired * 4 < flooded);
+
+        LandmarkTable landmarks = new LandmarkTable(added, new LandmarkTable(original));
+        assertEquals(servicePoints.size() + 4, landmarks.landmarkCount());
+    }
+
+    private static void assertSameDistances(ServicePointFields expected,
+                                            ServicePointFields actual) {
+        assertEquals(expected.grid(), actual.grid());
+        for (int i = 0; i < expected.fields().size(); i++) {
+            DistanceField want = expected.fields().get(i);
+            DistanceField got = actual.fields().get(i);
+            for (int cell = 0; cell < want.grid().cellCount(); cell++) {
+                if (Double.isInfinite(want.moves(cell))) {
+                    assertTrue(Double.isInfinite(got.moves(cell)), "cell " + cell);
+                } else {
+                    assertEquals(want.moves(cell), got.moves(cell), 1e-3, "cell " + cell);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testLandmarkTable_boundNeverExceedsFloodedDistance() {
+        RestrictedAirspace airspace = new RestrictedAirspace(GEORGE_SQUARE);
+        List<Position> servicePoints = List.of(
+                new Position(-3.1863580788986368, 55.94468066708487),
+                new Position(-3.1940, 55.9430));
+        LandmarkTable landmarks =
+                new LandmarkTable(new ServicePointFields(airspace, servicePoints));
+        assertEquals(servicePoints.size() + 4, landmarks.landmarkCount());
+
+        Position goal = new Position(-3.1862, 55.9430);
+        CellGrid grid = CellGrid.around(airspace, servicePoints, Lattice.STEP, 16);
+        DistanceField fromGoal = DistanceField.flood(airspace, grid, goal);
+        LandmarkTable.GoalBound bound = landmarks.towards(goal);
+        Random random = new Random(9);
+
+        int tighter = 0;
+        for (int i = 0; i < 5_000; i++) {
+            double x = -3.1915 + random.nextDouble() * 0.0055;
+            double y = 55.9420 + random.nextDouble() * 0.0040;
+            double actual = fromGoal.movesTo(x, y);
+            if (!Double.isFinite(actual)) continue;
+
+            double atLeast = bound.movesAtLeast(x, y);
+            assertTrue(atLeast <= actual, atLeast + " > " + actual);
+            double straight = Math.hypot(goal.lng() - x, goal.lat() - y) / Lattice.STEP;
+            if (atLeast > straight + 1) tighter++;
+        }
+        System.out.println("bound beats straight line at " + tighter + " points");
+        assertTrue(tighter > 0);
+    }
+
+    // Lattice moves from start until within a STEP of goal, each heading
+    // chosen to close the most distance; fails on any blocked move
+    private static int walk(RestrictedAirspace airspace, Position start, Position goal) {
+        double x = start.lng(), y = start.lat();
+        int moves = 0;
+        while (Math.hypot(goal.lng() - x, goal.lat() - y) >= Lattice.STEP) {
+            long best = 0;
+            double left = Double.POSITIVE_INFINITY;
+            for (int d = 0; d < Lattice.DIRECTIONS; d++) {
+                long next = Lattice.neighbour(x, y, d);
+                double to = Math.hypot(goal.lng() - Lattice.lng(next),
+                        goal.lat() - Lattice.lat(next));
+                if (to < left) {
+                    left = to;
+                    best = next;
+                }
+            }
+            assertFalse(airspace.moveBlocked(x, y, Lattice.lng(best), Lattice.lat(best)));
+            x = Lattice.lng(best);
+            y = Lattice.lat(best);
+            moves++;
+        }
+        return moves;
+    }
+
+    @Test
+    void testLandmarkTable_slitNarrowerThanCellKeepsBoundBelowWalk() {
+        // a long wall split by a slit a fifteenth of a STEP wide
+        RestrictedAirspace airspace = new RestrictedAirspace(List.of(
+                box("west", -0.006, 0.0015, 0.003, 0.002),
+                box("east", 0.00301, 0.0015, 0.012, 0.002)));
+        Position north = new Position(0.003005, 0.0045);
+        LandmarkTable landmarks = new LandmarkTable(new ServicePointFields(airspace,
+                List.of(north, new Position(0.003005, -0.0015))));
+        Position goal = new Position(0.003005, 0.0030);
+        LandmarkTable.GoalBound bound = landmarks.towards(goal);
+
+        for (double y = -0.0010; y < 0.0015; y += 0.0005) {
+            // due north keeps to the middle of the slit
+            Position start = new Position(0.003005, y);
+            int moves = walk(airspace, start, goal);
+            double atLeast = bound.movesAtLeast(start.lng(), start.lat());
+            System.out.println("through the slit: " + moves + " moves, bound " + atLeast);
+            // the walk stops within a STEP of the goal rather than on it
+            assertTrue(atLeast - Lattice.MAX_DETOUR <= moves, atLeast + " > " + moves);
+        }
+    }
+
+    @Test
+    void testLandmarkTable_longOpenLegKeepsBoundBelowWalk() {
+        // halfway between a straight and a knight cell move, where a cell
+        // path runs furthest over the straight line
+        double angle = Math.atan(0.5) / 2;
+        Position goal = new Position(0.0, 0.0);
+        Position landmark = new Position(700 * Lattice.STEP * Math.cos(angle),
+                700 * Lattice.STEP * Math.sin(angle));
+        RestrictedAirspace airspace = new RestrictedAirspace(List.of());
+        LandmarkTable landmarks = new LandmarkTable(
+                new ServicePointFields(airspace, List.of(landmark, goal)));
+        LandmarkTable.GoalBound bound = landmarks.towards(goal);
+
+        Position start = new Position(650 * Lattice.STEP * Math.cos(angle),
+                650 * Lattice.STEP * Math.sin(angle));
+        int moves = walk(airspace, start, goal);
+        double atLeast = bound.movesAtLeast(start.lng(), start.lat());
+        System.out.println("open leg: " + moves + " moves, bound " + atLeast);
+        assertTrue(atLeast - Lattice.MAX_DETOUR <= moves, atLeast + " > " + moves);
+        assertTrue(atLeast > 0.95 * moves);
+    }
+}
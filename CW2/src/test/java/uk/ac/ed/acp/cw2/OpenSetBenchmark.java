@@ -0,0 +1,186 @@
+package uk.ac.ed.acp.cw2;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PreparedRegion;
+import uk.ac.ed.acp.cw2.data.Region;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+import uk.ac.ed.acp.cw2.pathfinding.NodeTable;
+import uk.ac.ed.acp.cw2.pathfinding.OpenSet;
+import uk.ac.ed.acp.cw2.pathfinding.PlanarGeometry;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the old lazy-deletion PriorityQueue open set with OpenSet on a
+ * long leg through a field of obstacles. Both runs use the same search
+ * (one move per step, heuristic weighted by W so the 1e-6 lattice stays
+ * tractable), so the only difference is the open set.
+ * Not picked up by the default surefire includes, run with:
+ * mvn test -Dtest=OpenSetBenchmark
+ */
+public class OpenSetBenchmark {
+    private static final int RUNS = 5;
+    private static final double W = 2.0;
+
+    private final Position start = new Position(-3.2100, 55.9400);
+    private final Position goal = new Position(-3.1700, 55.9600);
+    private final List<Region> obstacles = obstacleField();
+    private final List<PreparedRegion> prepared = PreparedRegion.of(obstacles);
+
+    // Staggered grid of small squares between start and goal
+    private static List<Region> obstacleField() {
+        List<Region> regions = new ArrayList<>();
+        double size = 0.0012;
+        for (int i = 0; i < 14; i++) {
+            for (int j = 0; j < 7; j++) {
+                double x = -3.2060 + i * 0.0028 + (j % 2) * 0.0014;
+                double y = 55.9405 + j * 0.0028;
+                regions.add(new Region("block-" + i + "-" + j, List.of(
+                        new Position(x, y),
+                        new Position(x + size, y),
+                        new Position(x + size, y + size),
+                        new Position(x, y + size),
+                        new Position(x, y))));
+            }
+        }
+        return regions;
+    }
+
+    private boolean blocked(double x, double y, double nx, double ny) {
+        for (PreparedRegion region : prepared) {
+            if (region.contains(nx, ny)) return true;
+            for (int i = 0; i < region.edgeCount(); i++) {
+                if (PlanarGeometry.segmentsIntersect(x, y, nx, ny, region.x(i),
+                        region.y(i), region.x(i + 1), region.y(i + 1))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private double h(double x, double y) {
+        double dx = x - goal.lng();
+        double dy = y - goal.lat();
+        return W * Math.sqrt(dx * dx + dy * dy) / Lattice.STEP;
+    }
+
+    private boolean close(double x, double y) {
+        double dx = x - goal.lng();
+        double dy = y - goal.lat();
+        return Math.sqrt(dx * dx + dy * dy) < Lattice.STEP;
+    }
+
+    record Result(int moves, long polls, int maxHeap, long pollNanos) {}
+
+    private Result runPriorityQueue() {
+        Map<Position, Double> cost = new HashMap<>();
+        Map<Position, Double> fscore = new HashMap<>();
+        Map<Position, Position> parent = new HashMap<>();
+        Set<Position> explored = new HashSet<>();
+        PriorityQueue<Position> q = new PriorityQueue<>(Comparator.comparingDouble(
+                p -> fscore.getOrDefault(p, Double.POSITIVE_INFINITY)));
+
+        cost.put(start, 0.0);
+        fscore.put(start, h(start.lng(), start.lat()));
+        q.add(start);
+        long polls = 0, pollNanos = 0;
+        int maxHeap = 1;
+
+        while (!q.isEmpty()) {
+            long t0 = System.nanoTime();
+            Position curr = q.poll();
+            pollNanos += System.nanoTime() - t0;
+            polls++;
+
+            if (close(curr.lng(), curr.lat())) {
+                int moves = 0;
+                for (Position p = curr; !p.equals(start); p = parent.get(p)) moves++;
+                return new Result(moves, polls, maxHeap, pollNanos);
+            }
+            if (!explored.add(curr)) continue;
+
+            for (int dir = 0; dir < Lattice.DIRECTIONS; dir++) {
+                long key = Lattice.neighbour(curr.lng(), curr.lat(), dir);
+                Position next = Lattice.toPosition(key);
+                if (explored.contains(next)) continue;
+                if (blocked(curr.lng(), curr.lat(), next.lng(), next.lat())) continue;
+
+                double newCost = cost.get(curr) + 1;
+                if (newCost < cost.getOrDefault(next, Double.POSITIVE_INFINITY)) {
+                    parent.put(next, curr);
+                    cost.put(next, newCost);
+                    fscore.put(next, newCost + h(next.lng(), next.lat()));
+                    q.add(next);
+                    maxHeap = Math.max(maxHeap, q.size());
+                }
+            }
+        }
+        throw new IllegalStateException("No path found");
+    }
+
+    private Result runOpenSet() {
+        NodeTable nodes = new NodeTable();
+        OpenSet q = new OpenSet();
+        int startNode = nodes.getOrAdd(Lattice.key(start));
+        nodes.setG(startNode, 0.0);
+        q.push(startNode, h(start.lng(), start.lat()));
+        long polls = 0, pollNanos = 0;
+        int maxHeap = 1;
+
+        while (!q.isEmpty()) {
+            long t0 = System.nanoTime();
+            int curr = q.poll();
+            pollNanos += System.nanoTime() - t0;
+            polls++;
+
+            double x = curr == startNode ? start.lng() : Lattice.lng(nodes.key(curr));
+            double y = curr == startNode ? start.lat() : Lattice.lat(nodes.key(curr));
+            if (close(x, y)) {
+                return new Result((int) nodes.g(curr), polls, maxHeap, pollNanos);
+            }
+            nodes.close(curr);
+
+            for (int dir = 0; dir < Lattice.DIRECTIONS; dir++) {
+                long key = Lattice.neighbour(x, y, dir);
+                int next = nodes.find(key);
+                if (next >= 0 && nodes.isClosed(next)) continue;
+                if (blocked(x, y, Lattice.lng(key), Lattice.lat(key))) continue;
+
+                double newCost = nodes.g(curr) + 1;
+                if (next < 0 || newCost < nodes.g(next)) {
+                    if (next < 0) next = nodes.getOrAdd(key);
+                    nodes.setParent(next, curr);
+                    nodes.setG(next, newCost);
+                    q.push(next, newCost + h(Lattice.lng(key), Lattice.lat(key)));
+                    maxHeap = Math.max(maxHeap, q.size());
+                }
+            }
+        }
+        throw new IllegalStateException("No path found");
+    }
+
+    private static void print(String name, Result r) {
+        System.out.printf("%-14s moves=%d polls=%d maxHeap=%d ns/poll=%.1f%n",
+                name, r.moves(), r.polls(), r.maxHeap(),
+                (double) r.pollNanos() / r.polls());
+    }
+
+    @Test
+    void benchmarkOpenSet_longLegManyObstacles() {
+        Result before = null, after = null;
+        // first runs warm up the JIT, the last run is reported
+        for (int i = 0; i < RUNS; i++) {
+            before = runPriorityQueue();
+            after = runOpenSet();
+        }
+        print("PriorityQueue", before);
+        print("OpenSet", after);
+
+        assertEquals(before.moves(), after.moves());
+        assertTrue(after.maxHeap() <= before.maxHeap());
+    }
+}
@@ -0,0 +1,109 @@
+package uk.ac.ed.acp.cw2;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.Region;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+import uk.ac.ed.acp.cw2.pathfinding.ParallelSearch;
+import uk.ac.ed.acp.cw2.pathfinding.RestrictedAirspace;
+import uk.ac.ed.acp.cw2.pathfinding.SearchBounds;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Speedup of the hash-distributed search with the number of worker
+ * threads, on a long leg through a field of obstacles. Thread counts go
+ * up in powers of two to the cores available (and at least 2, so the
+ * message passing is always measured).
+ * Not picked up by the default surefire includes, run with:
+ * mvn test -Dtest=ParallelSearchBenchmark
+ */
+public class ParallelSearchBenchmark {
+    private static final int RUNS = 5;
+    private static final double WEIGHT = 1.0;
+    private static final int MAX_EXPANSIONS = 5_000_000;
+
+    private final Position start = new Position(-3.2100, 55.9400);
+    private final Position goal = new Position(-3.1700, 55.9600);
+    private final RestrictedAirspace airspace = new RestrictedAirspace(obstacleField());
+
+    // Staggered grid of small squares between start and goal
+    private static List<Region> obstacleField() {
+        List<Region> regions = new ArrayList<>();
+        double size = 0.0012;
+        for (int i = 0; i < 14; i++) {
+            for (int j = 0; j < 7; j++) {
+                double x = -3.2060 + i * 0.0028 + (j % 2) * 0.0014;
+                double y = 55.9405 + j * 0.0028;
+                regions.add(new Region("block-" + i + "-" + j, List.of(
+                        new Position(x, y),
+                        new Position(x + size, y),
+                        new Position(x + size, y + size),
+                        new Position(x, y + size),
+                        new Position(x, y))));
+            }
+        }
+        return regions;
+    }
+
+    private double h(double x, double y) {
+        double moves = Lattice.movesAtLeast(x - goal.lng(), y - goal.lat());
+        return Math.max(0, Math.ceil(moves - Lattice.MAX_DETOUR - 1e-9));
+    }
+
+    record Result(int threads, int moves, int expansions, long nanos) {}
+
+    private Result run(int threads) {
+        ParallelSearch search = new ParallelSearch(airspace, start, goal, Lattice.STEP,
+                SearchBounds.around(airspace, start, goal, MAX_EXPANSIONS),
+                this::h, threads);
+        long t0 = System.nanoTime();
+        assertTrue(search.search(WEIGHT));
+        long nanos = System.nanoTime() - t0;
+        assertLegalRoute(search.route());
+        return new Result(threads, search.route().size() - 1, search.expansions(), nanos);
+    }
+
+    private void assertLegalRoute(List<Position> route) {
+        assertEquals(start, route.getFirst());
+        for (int i = 1; i < route.size(); i++) {
+            Position a = route.get(i - 1), b = route.get(i);
+            assertEquals(Lattice.STEP, Math.hypot(b.lng() - a.lng(), b.lat() - a.lat()), 2e-6);
+            assertFalse(airspace.moveBlocked(a.lng(), a.lat(), b.lng(), b.lat()));
+        }
+        Position last = route.getLast();
+        assertTrue(Math.hypot(last.lng() - goal.lng(), last.lat() - goal.lat()) < Lattice.STEP);
+    }
+
+    @Test
+    void benchmarkParallelSearch_speedupWithThreads() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads <= Math.max(2, cores); threads *= 2) counts.add(threads);
+
+        List<Result> results = new ArrayList<>();
+        for (int threads : counts) {
+            // first runs warm up the JIT, the fastest run is reported
+            Result best = null;
+            for (int i = 0; i < RUNS; i++) {
+                Result r = run(threads);
+                if (best == null || r.nanos() < best.nanos()) best = r;
+            }
+            results.add(best);
+        }
+
+        System.out.println("cores available: " + cores);
+        long single = results.getFirst().nanos();
+        for (Result r : results) {
+            System.out.printf("threads=%-3d moves=%d expansions=%d ms=%.1f speedup=%.2f%n",
+                    r.threads(), r.moves(), r.expansions(), r.nanos() / 1e6,
+                    (double) single / r.nanos());
+            // cells keep the first node to reach them, so the moves may
+            // differ a little with the order the workers get there
+            assertTrue(r.moves() >= h(start.lng(), start.lat()));
+        }
+    }
+}
@@ -18,15 +18,13 @@ import static org.mockito.Mockito.when;
 public class PathPlanningSimulatePostTests {
     private IlpRestClient restClient;
     private GeometryService geometry;
-    private DroneQueriesService droneService;
     private PathPlanningServiceImpl pathPlanning;
 
     @BeforeEach
     void setup() {
         restClient = Mockito.mock(IlpRestClient.class);
         geometry = new GeometryServiceImpl();
-        droneService = new DroneQueriesServiceImpl(restClient);
-        pathPlanning = new PathPlanningServiceImpl(restClient, geometry, droneService);
+        pathPlanning = new PathPlanningServiceImpl(restClient, geometry);
     }
 
 
@@ -349,8 +347,7 @@ public class PathPlanningSimulatePostTests {
         // Mock client + services
         IlpRestClient restClient = Mockito.mock(IlpRestClient.class);
         GeometryService geometry = new GeometryServiceImpl();
-        DroneQueriesService droneService = new DroneQueriesServiceImpl(restClient);
-        PathPlanningServiceImpl planner = new PathPlanningServiceImpl(restClient, geometry, droneService);
+        PathPlanningServiceImpl planner = new PathPlanningServiceImpl(restClient, geometry);
 
         // 1) Choose MedDispatchRecs (recsOneDrone, need2drone, diffDate,
         // recsMissingFieldValid)
@@ -405,14 +402,42 @@ public class PathPlanningSimulatePostTests {
                 .collect(java.util.stream.Collectors.toSet());
     }
 
+    @Test
+    void testCalcDeliveryPath_sharesDispatchesOverFlights() {
+        IlpRestClient.IlpServiceSnapshot ilpSnapshot =
+                new IlpRestClient.IlpServiceSnapshot(
+                        givenDrones, givenDroneForServicePoints,
+                        givenSP, givenRestricted
+                );
+        when(restClient.getIlpServiceSnapshot()).thenReturn(ilpSnapshot);
+
+        // 6.0 capacity and heating cannot share a drone, so at least two
+        // flights, each dispatch on exactly one of them
+        DeliveryPath result = pathPlanning.calcDeliveryPath(need2drone);
+
+        System.out.println("Total Cost : " + result.totalCost());
+        System.out.println("Total Moves: " + result.totalMoves());
+        List<Integer> deliveredIds = new java.util.ArrayList<>();
+        for (DronePath dp : result.dronePaths()) {
+            System.out.println("Drone " + dp.droneId() + " path:");
+            for (Delivery d : dp.deliveries()) {
+                System.out.println("  deliveryId=" + d.deliveryId() + " pathLen=" + d.flightPath().size());
+                if (d.deliveryId() != -1) deliveredIds.add(d.deliveryId());
+            }
+        }
+        System.out.println("Plan memo  : " + pathPlanning.lastPlanMemo());
+        System.out.println("Planner    : " + pathPlanning.plannerStats());
+        assertTrue(result.dronePaths().size() >= 2);
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), deliveredIds.stream().sorted().toList());
+    }
+
 //    @Test
 //    void testCalcDeliveryPathAsGeoJson() {
 //        // ---------- Arrange ----------
 //        // Mock client + services
 //        IlpRestClient restClient = Mockito.mock(IlpRestClient.class);
 //        GeometryService geometry = new GeometryServiceImpl();
-//        DroneQueriesService droneService = new DroneQueriesServiceImpl(restClient);
-//        PathPlanningServiceImpl planner = new PathPlanningServiceImpl(restClient, geometry, droneService);
+//        PathPlanningServiceImpl planner = new PathPlanningServiceImpl(restClient, geometry);
 //
 //        // 1) Choose MedDispatchRecs (recsOneDrone, need2drone, diffDate)
 //        List<MedDispatchRec> medDispatchRecs = need2drone;
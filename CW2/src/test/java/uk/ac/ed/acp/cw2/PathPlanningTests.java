@@ -17,11 +17,8 @@ import static org.mockito.ArgumentMatchers.anyDouble;
 public class PathPlanningTests {
     final IlpRestClient ilpRestClient = Mockito.mock(IlpRestClient.class);
     final GeometryService geometryService = new GeometryServiceImpl();
-    final DroneQueriesService droneQueriesService =
-            new DroneQueriesServiceImpl(ilpRestClient);
     PathPlanningServiceImpl pathPlanningService  =
-            new PathPlanningServiceImpl(ilpRestClient,geometryService,
-                    droneQueriesService);
+            new PathPlanningServiceImpl(ilpRestClient,geometryService);
 
     @Test
     void testTSPGreedyNN(){
@@ -3,12 +3,19 @@ package uk.ac.ed.acp.cw2;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.reactive.function.client.WebClient;
 import uk.ac.ed.acp.cw2.client.IlpRestClient;
 import uk.ac.ed.acp.cw2.data.*;
 import uk.ac.ed.acp.cw2.dto.DeliveryTarget;
 import uk.ac.ed.acp.cw2.dto.DeliveryWTotalMove;
 import uk.ac.ed.acp.cw2.dto.PositionsWTotalMove;
+import uk.ac.ed.acp.cw2.pathfinding.AnytimeSearch;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+import uk.ac.ed.acp.cw2.pathfinding.NodeTable;
+import uk.ac.ed.acp.cw2.pathfinding.RestrictedAirspace;
+import uk.ac.ed.acp.cw2.pathfinding.ServicePointFields;
 import uk.ac.ed.acp.cw2.services.*;
 
 import java.time.LocalTime;
@@ -25,15 +32,13 @@ public class PathPlanningUnitTests {
 
     private IlpRestClient restClient;
     private GeometryService geometry;
-    private DroneQueriesService droneService;
     private PathPlanningServiceImpl pathPlanning;
 
     @BeforeEach
     void setup() {
         restClient = Mockito.mock(IlpRestClient.class);
         geometry = new GeometryServiceImpl();
-        droneService = new DroneQueriesServiceImpl(restClient);
-        pathPlanning = new PathPlanningServiceImpl(restClient, geometry, droneService);
+        pathPlanning = new PathPlanningServiceImpl(restClient, geometry);
     }
 
     // --------------------- TSPGreedyNN ---------------------
@@ -137,6 +142,254 @@ public class PathPlanningUnitTests {
         }
     }
 
+    @Test
+    void testPlanPath_failsFastWhenGoalIsCutOff() {
+        Position start = new Position(0.0, 0.0);
+        Region block = new Region("block", List.of(
+                new Position(0.002, 0.002), new Position(0.004, 0.002),
+                new Position(0.004, 0.004), new Position(0.002, 0.004),
+                new Position(0.002, 0.002)));
+
+        long t0 = System.nanoTime();
+        IllegalStateException inside = assertThrows(IllegalStateException.class,
+                () -> pathPlanning.planPath(start, new Position(0.003, 0.003), List.of(block)));
+        IllegalStateException bidirectional = assertThrows(IllegalStateException.class,
+                () -> pathPlanning.planPathBidirectional(start,
+                        new Position(0.003, 0.003), List.of(block)));
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println(inside.getMessage() + " (" + ms + " ms)");
+
+        assertTrue(inside.getMessage().startsWith("No path found"));
+        assertTrue(bidirectional.getMessage().startsWith("No path found"));
+        assertTrue(ms < 1_000);
+    }
+
+    @Test
+    void testPlanPath_straightLineFastPathOnOpenGround() {
+        Position start = new Position(0.0, 0.0);
+        Position goal = new Position(0.0025, 0.0004);
+        Region wall = new Region("wall", List.of(
+                new Position(0.0010, -0.0006), new Position(0.0012, -0.0006),
+                new Position(0.0012, 0.0006), new Position(0.0010, 0.0006),
+                new Position(0.0010, -0.0006)));
+        PlannerStats stats = pathPlanning.plannerStats();
+
+        PositionsWTotalMove open = pathPlanning.planPath(start, goal, List.of());
+        assertEquals(1, stats.straightHits());
+        assertEquals(0, stats.straightMisses());
+        PositionsWTotalMove around = pathPlanning.planPath(start, goal, List.of(wall));
+        System.out.println("Planner: " + stats + ", open ground " + open.totalMove()
+                + " moves (bound " + open.suboptimality() + "), around wall "
+                + around.totalMove() + " moves");
+
+        assertEquals(1, stats.straightHits());
+        assertEquals(1, stats.straightMisses());
+        assertEquals(start, open.positions().getFirst());
+        assertPositionWithinTolerance(goal, open.positions().getLast(), 0.00015);
+        assertLegalMoves(open.positions(), CUP);
+        assertLegalMoves(around.positions(), wall);
+        assertTrue(open.suboptimality() >= 1.0 && open.suboptimality() < 1.1);
+        assertTrue(around.totalMove() > open.totalMove());
+    }
+
+    @Test
+    void testPlanPath_lazyEdgesNeverCrossRegion() {
+        ReflectionTestUtils.setField(pathPlanning, "successors",
+                AnytimeSearch.Successors.LAZY_STEPS);
+        Position start = new Position(-3.1863580788986368, 55.94468066708487);
+        RestrictedAirspace airspace = new RestrictedAirspace(List.of(CUP));
+        // round the cup, into it through its open side, and past its base
+        List<Position> goals = List.of(new Position(-3.189, 55.941),
+                new Position(-3.188, 55.942), new Position(-3.1880, 55.9405));
+
+        for (Position goal : goals) {
+            PositionsWTotalMove path = pathPlanning.planPath(start, goal, List.of(CUP));
+            System.out.println("lazy edges to " + goal + ": " + path.totalMove() + " moves");
+
+            assertEquals(start, path.positions().getFirst());
+            assertPositionWithinTolerance(goal, path.positions().getLast(), 0.00015);
+            assertLegalMoves(path.positions(), CUP);
+            for (int i = 1; i < path.positions().size(); i++) {
+                Position a = path.positions().get(i - 1), b = path.positions().get(i);
+                assertFalse(airspace.exactMoveBlocked(a.lng(), a.lat(), b.lng(), b.lat()),
+                        "move " + i + " crosses the region");
+            }
+        }
+        assertEquals(goals.size(), pathPlanning.plannerStats().straightMisses());
+    }
+
+    // --------------------- planPathHierarchical ---------------------
+
+    // Every move is one STEP along a multiple of 22.5 degrees (up to the
+    // 1e-6 lattice rounding) and never ends in the region
+    private void assertLegalMoves(List<Position> path, Region region) {
+        for (int i = 1; i < path.size(); i++) {
+            Position a = path.get(i - 1), b = path.get(i);
+            double dx = b.lng() - a.lng(), dy = b.lat() - a.lat();
+            assertEquals(Lattice.STEP, Math.hypot(dx, dy), 2e-6, "move " + i);
+            double angle = Math.toDegrees(Math.atan2(dy, dx));
+            double offset = Math.abs(angle - 22.5 * Math.round(angle / 22.5));
+            assertTrue(offset < 1.0, "move " + i + " at " + angle + " degrees");
+            assertFalse(geometry.isInRegion(b, region), "move " + i + " ends in region");
+        }
+    }
+
+    // U-shaped region open away from the start of the legs below
+    private static final Region CUP = new Region("cup", List.of(
+            new Position(-3.1870, 55.9435),
+            new Position(-3.1890, 55.9435),
+            new Position(-3.1890, 55.9415),
+            new Position(-3.1886, 55.9415),
+            new Position(-3.1886, 55.9431),
+            new Position(-3.1874, 55.9431),
+            new Position(-3.1874, 55.9415),
+            new Position(-3.1870, 55.9415),
+            new Position(-3.1870, 55.9435)
+    ));
+
+    @Test
+    void testPlanPathHierarchical_routesAroundRegionWithLatticeMoves() {
+        Position start = new Position(-3.1863580788986368, 55.94468066708487);
+        Position goal  = new Position(-3.189, 55.941);
+
+        PositionsWTotalMove lattice = pathPlanning.planPath(start, goal, List.of(CUP));
+        PositionsWTotalMove hierarchical =
+                pathPlanning.planPathHierarchical(start, goal, List.of(CUP));
+        System.out.println("A* moves: " + lattice.totalMove()
+                + ", HPA* moves: " + hierarchical.totalMove());
+
+        assertEquals(start, hierarchical.positions().getFirst());
+        assertPositionWithinTolerance(goal, hierarchical.positions().getLast(), 0.00015);
+        assertEquals(hierarchical.positions().size() - 1, hierarchical.totalMove());
+        assertLegalMoves(hierarchical.positions(), CUP);
+    }
+
+    @Test
+    void testPlanPathHierarchical_openGroundIsStraight() {
+        Position start = new Position(0.0, 0.0);
+        Position goal = new Position(0.003, 0.0015);
+
+        PositionsWTotalMove lattice = pathPlanning.planPath(start, goal, List.of());
+        PositionsWTotalMove hierarchical =
+                pathPlanning.planPathHierarchical(start, goal, List.of());
+
+        // nothing in the way: the corridor collapses to the direct leg
+        assertEquals(lattice.totalMove(), hierarchical.totalMove());
+    }
+
+    // --------------------- planPathVisibility ---------------------
+
+    @Test
+    void testPlanPathVisibility_routesAroundRegionWithLatticeMoves() {
+        Position start = new Position(-3.1863580788986368, 55.94468066708487);
+        Position goal  = new Position(-3.1880, 55.9425); // inside the cup
+
+        PositionsWTotalMove lattice = pathPlanning.planPath(start, goal, List.of(CUP));
+        PositionsWTotalMove visibility =
+                pathPlanning.planPathVisibility(start, goal, List.of(CUP));
+        System.out.println("A* moves: " + lattice.totalMove()
+                + ", visibility moves: " + visibility.totalMove());
+
+        assertEquals(start, visibility.positions().getFirst());
+        assertPositionWithinTolerance(goal, visibility.positions().getLast(), 0.00015);
+        assertEquals(visibility.positions().size() - 1, visibility.totalMove());
+        assertLegalMoves(visibility.positions(), CUP);
+    }
+
+    @Test
+    void testPlanPathVisibility_openGroundIsStraight() {
+        Position start = new Position(0.0, 0.0);
+        Position goal = new Position(0.003, 0.0011);
+
+        PositionsWTotalMove visibility =
+                pathPlanning.planPathVisibility(start, goal, List.of());
+
+        // within one move of the straight-line distance
+        double direct = Math.hypot(goal.lng(), goal.lat()) / Lattice.STEP;
+        assertTrue(visibility.totalMove() <= Math.ceil(direct) + 1,
+                visibility.totalMove() + " moves for " + direct);
+        assertLegalMoves(visibility.positions(), CUP);
+    }
+
+    // --------------------- planPathBidirectional ---------------------
+
+    @Test
+    void testPlanPathBidirectional_meetsAroundRegionWithLatticeMoves() {
+        Position start = new Position(-3.1910, 55.9460);
+        Position goal  = new Position(-3.1840, 55.9395);
+
+        PositionsWTotalMove lattice = pathPlanning.planPath(start, goal, List.of(CUP));
+        PositionsWTotalMove bidirectional =
+                pathPlanning.planPathBidirectional(start, goal, List.of(CUP));
+        System.out.println("A* moves: " + lattice.totalMove()
+                + ", bidirectional moves: " + bidirectional.totalMove());
+
+        assertEquals(start, bidirectional.positions().getFirst());
+        assertPositionWithinTolerance(goal, bidirectional.positions().getLast(), 0.00015);
+        assertEquals(bidirectional.positions().size() - 1, bidirectional.totalMove());
+        assertLegalMoves(bidirectional.positions(), CUP);
+        // searched once at the initial weight, which bounds the route
+        assertEquals(2.5, bidirectional.suboptimality());
+        assertTrue(bidirectional.totalMove() <= bidirectional.suboptimality() * lattice.totalMove());
+    }
+
+    @Test
+    void testPlanPathBidirectional_enclosedGoalStillReachedFromOutside() {
+        Position start = new Position(0.0, 0.0);
+        // goal sits inside the block, so only the forward side can grow
+        Position goal = new Position(0.0022, 0.0);
+        Region block = new Region("block", List.of(
+                new Position(0.0021, -0.0001),
+                new Position(0.0023, -0.0001),
+                new Position(0.0023, 0.0001),
+                new Position(0.0021, 0.0001),
+                new Position(0.0021, -0.0001)
+        ));
+
+        PositionsWTotalMove bidirectional =
+                pathPlanning.planPathBidirectional(start, goal, List.of(block));
+
+        assertPositionWithinTolerance(goal, bidirectional.positions().getLast(), 0.00015);
+        assertLegalMoves(bidirectional.positions(), block);
+    }
+
+    @Test
+    void testPlanFlightPathSingleDrone_bidirectionalLegsWhenEnabled() {
+        Region wall = new Region("wall", List.of(
+                new Position(0.0010, -0.0006), new Position(0.0012, -0.0006),
+                new Position(0.0012, 0.0006), new Position(0.0010, 0.0006),
+                new Position(0.0010, -0.0006)));
+        Position sp = new Position(0.0, 0.0);
+        List<DeliveryTarget> route = List.of(
+                new DeliveryTarget(-1, sp),
+                new DeliveryTarget(1, new Position(0.0025, 0.0)),
+                new DeliveryTarget(2, new Position(0.0030, -0.0005)));
+
+        DeliveryWTotalMove anytime = pathPlanning.planFlightPathSingleDrone(route, List.of(wall));
+        // off by default: legs blocked by the wall and longer than this search from both ends
+        ReflectionTestUtils.setField(pathPlanning, "bidirectionalDistance", 0.001);
+        DeliveryWTotalMove bidirectional =
+                pathPlanning.planFlightPathSingleDrone(route, List.of(wall));
+        System.out.println("anytime: " + anytime.totalMove() + " moves (bound "
+                + anytime.suboptimality() + "), bidirectional: " + bidirectional.totalMove()
+                + " moves (bound " + bidirectional.suboptimality() + ")");
+
+        assertEquals(List.of(1, 2, -1),
+                bidirectional.deliveries().stream().map(Delivery::deliveryId).toList());
+        for (Delivery delivery : bidirectional.deliveries()) {
+            List<Position> path = delivery.flightPath();
+            // all but the last leg end in a hover
+            boolean hover = delivery.deliveryId() != -1;
+            assertLegalMoves(hover ? path.subList(0, path.size() - 1) : path, wall);
+        }
+        assertPositionWithinTolerance(sp,
+                bidirectional.deliveries().getLast().flightPath().getLast(), 0.00015);
+        // searched once at the initial weight, not improved under the deadline
+        assertEquals(2.5, bidirectional.suboptimality());
+        assertTrue(anytime.suboptimality() < bidirectional.suboptimality());
+        assertTrue(bidirectional.totalMove() <= 2.5 * anytime.totalMove());
+    }
+
     // --------------------- planFlightPathSingleDrone ---------------------
 
     @Test
@@ -164,24 +417,307 @@ public class PathPlanningUnitTests {
     }
 
 
+    @Test
+    void testPlanFlightPathSingleDrone_legsInRouteOrderWithHovers() {
+        // a wall between the service point and the stops makes legs differ
+        Region wall = new Region("wall", List.of(
+                new Position(0.0010, -0.0006), new Position(0.0012, -0.0006),
+                new Position(0.0012, 0.0006), new Position(0.0010, 0.0006),
+                new Position(0.0010, -0.0006)));
+        Position sp = new Position(0.0, 0.0);
+        List<DeliveryTarget> route = List.of(
+                new DeliveryTarget(-1, sp),
+                new DeliveryTarget(1, new Position(0.0020, 0.0)),
+                new DeliveryTarget(2, new Position(0.0020, 0.0010)),
+                new DeliveryTarget(3, new Position(0.0030, -0.0005)),
+                new DeliveryTarget(4, new Position(0.0025, 0.0015)));
+
+        DeliveryWTotalMove result =
+                pathPlanning.planFlightPathSingleDrone(route, List.of(wall));
+
+        assertEquals(List.of(1, 2, 3, 4, -1),
+                result.deliveries().stream().map(Delivery::deliveryId).toList());
+        int moves = 0;
+        for (int i = 0; i < route.size(); i++) {
+            PositionsWTotalMove leg = pathPlanning.planPath(route.get(i).delivery(),
+                    route.get((i + 1) % route.size()).delivery(), List.of(wall));
+            List<Position> path = result.deliveries().get(i).flightPath();
+            boolean hover = i < route.size() - 1;
+            assertEquals(leg.positions().size() + (hover ? 1 : 0), path.size());
+            assertEquals(route.get(i).delivery(), path.getFirst());
+            if (hover) assertEquals(path.get(path.size() - 2), path.getLast());
+            moves += leg.totalMove() + (hover ? 1 : 0);
+        }
+        assertEquals(moves, result.totalMove());
+    }
+
+
+    // --------------------- MoveCostEstimator ---------------------
+
+    @Test
+    void testEstimateMove_usesServicePointFieldAroundWall() {
+        Position sp = new Position(0.0, 0.0);
+        Position delivery = new Position(0.003, 0.0);
+        // wall across the straight line, open well above and below
+        Region wall = new Region("wall", List.of(
+                new Position(0.0014, -0.0015),
+                new Position(0.0016, -0.0015),
+                new Position(0.0016, 0.0015),
+                new Position(0.0014, 0.0015),
+                new Position(0.0014, -0.0015)
+        ));
+        var fields = new ServicePointFields(new RestrictedAirspace(List.of(wall)), List.of(sp));
+        var straight = new MoveCostEstimator(geometry, Lattice.STEP);
+        var around = straight.withServicePointFields(fields);
+
+        int straightMoves = straight.estimateMove(sp, delivery);
+        int aroundMoves = around.estimateMove(sp, delivery);
+        System.out.println("straight: " + straightMoves + ", around wall: " + aroundMoves);
+
+        // over the wall and back is about 28 moves against 20 in a line
+        assertTrue(aroundMoves > straightMoves + 4);
+        // symmetric, and still a lower bound on the planned path
+        assertEquals(aroundMoves, around.estimateMove(delivery, sp));
+        assertTrue(aroundMoves <= pathPlanning.planPath(sp, delivery, List.of(wall)).totalMove());
+        // legs between two deliveries keep the straight-line bound
+        assertEquals(straight.estimateMove(delivery, new Position(0.003, 0.001)),
+                around.estimateMove(delivery, new Position(0.003, 0.001)));
+    }
+
+    @Test
+    void testEstimateMove_slitNarrowerThanCellKeepsBoundBelowWalk() {
+        Position sp = new Position(0.003005, 0.0045);
+        Position delivery = new Position(0.003005, -0.0010);
+        // a long wall split by a slit a fifteenth of a STEP wide
+        Region west = new Region("west", List.of(
+                new Position(-0.006, 0.0015), new Position(0.003, 0.0015),
+                new Position(0.003, 0.002), new Position(-0.006, 0.002),
+                new Position(-0.006, 0.0015)));
+        Region east = new Region("east", List.of(
+                new Position(0.00301, 0.0015), new Position(0.012, 0.0015),
+                new Position(0.012, 0.002), new Position(0.00301, 0.002),
+                new Position(0.00301, 0.0015)));
+        var airspace = new RestrictedAirspace(List.of(west, east));
+        var fields = new ServicePointFields(airspace, List.of(sp));
+        var matrix = DistanceMatrix.build(airspace, List.of(sp, delivery));
+        var estimator = new MoveCostEstimator(geometry, Lattice.STEP);
+
+        // due south keeps to the middle of the slit
+        double x = sp.lng(), y = sp.lat();
+        int moves = 0;
+        while (Math.hypot(delivery.lng() - x, delivery.lat() - y) >= Lattice.STEP) {
+            long next = Lattice.neighbour(x, y, 12);
+            assertFalse(airspace.moveBlocked(x, y, Lattice.lng(next), Lattice.lat(next)));
+            x = Lattice.lng(next);
+            y = Lattice.lat(next);
+            moves++;
+        }
+        int fromFields = estimator.withServicePointFields(fields).estimateMove(sp, delivery);
+        int fromMatrix = estimator.withLegMoves(matrix).estimateMove(sp, delivery);
+        System.out.println("through the slit: " + moves + " moves, estimates "
+                + fromFields + " and " + fromMatrix);
+
+        // the walk stops within a STEP of the delivery rather than on it
+        assertTrue(fromFields <= moves + 1);
+        assertTrue(fromMatrix <= moves + 1);
+    }
+
+    // --------------------- DistanceMatrix ---------------------
+
+    @Test
+    void testDistanceMatrix_ordersAroundWall() {
+        Position sp = new Position(0.0, 0.0);
+        // 20 moves in a line but behind the wall; 24 moves in the open
+        DeliveryTarget behindWall = new DeliveryTarget(1, new Position(0.003, 0.0));
+        DeliveryTarget open = new DeliveryTarget(2, new Position(-0.0036, 0.0));
+        Region wall = new Region("wall", List.of(
+                new Position(0.0014, -0.0015),
+                new Position(0.0016, -0.0015),
+                new Position(0.0016, 0.0015),
+                new Position(0.0014, 0.0015),
+                new Position(0.0014, -0.0015)
+        ));
+        List<Position> stops = List.of(sp, behindWall.delivery(), open.delivery());
+        var matrix = DistanceMatrix.build(new RestrictedAirspace(List.of(wall)), stops);
+        System.out.println("around wall: " + matrix.moves(0, 1) + ", open: " + matrix.moves(0, 2));
+
+        // the wall lengthens its leg, the open leg stays near the straight line
+        assertTrue(matrix.moves(0, 1) > 24);
+        assertEquals(24, matrix.moves(0, 2), 1.0);
+        assertTrue(matrix.moves(0, 1) - 2
+                <= pathPlanning.planPath(sp, behindWall.delivery(), List.of(wall)).totalMove());
+        assertEquals(matrix.moves(sp, behindWall.delivery()), matrix.moves(0, 1));
+        assertTrue(Double.isNaN(matrix.moves(sp, new Position(1.0, 1.0))));
+
+        // straight lines visit the wall side first, the matrix the open side
+        List<DeliveryTarget> deliveries = List.of(behindWall, open);
+        assertEquals(1, pathPlanning.TSPGreedyNN(sp, deliveries).get(1).id());
+        assertEquals(2, pathPlanning.TSPGreedyNN(sp, deliveries, matrix).get(1).id());
+    }
+
+    // --------------------- PlanMemo ---------------------
+
+    @Test
+    void testPlanMemo_reusesLegsFromTheSameStart() {
+        PlanMemo memo = new PlanMemo();
+        Position start = new Position(-3.19, 55.94);
+        Position goal = new Position(-3.189, 55.9405);
+        int[] planned = {0};
+        java.util.function.BiFunction<Position, Position, PositionsWTotalMove> planner =
+                (a, b) -> {
+                    planned[0]++;
+                    return new PositionsWTotalMove(1, new ArrayList<>(List.of(a, b)));
+                };
+
+        PositionsWTotalMove first = memo.leg(start, goal, planner);
+        first.positions().add(goal);
+        PositionsWTotalMove second = memo.leg(start, goal, planner);
+        // same lattice point, but not the exact start the path begins at
+        memo.leg(new Position(-3.19 + 2e-7, 55.94), goal, planner);
+
+        assertEquals(2, planned[0]);
+        assertEquals(List.of(start, goal), second.positions());
+        assertEquals(1, memo.legHits());
+        assertEquals(2, memo.legMisses());
+    }
+
+    @Test
+    void testPlanMemo_concurrentCallersShareOnePlan() {
+        PlanMemo memo = new PlanMemo();
+        Position start = new Position(-3.19, 55.94);
+        Position goal = new Position(-3.189, 55.9405);
+        java.util.concurrent.atomic.AtomicInteger planned =
+                new java.util.concurrent.atomic.AtomicInteger();
+        List<java.util.concurrent.Callable<PositionsWTotalMove>> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(() -> memo.leg(start, goal, (a, b) -> {
+                planned.incrementAndGet();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return new PositionsWTotalMove(1, new ArrayList<>(List.of(a, b)));
+            }));
+        }
+
+        List<PositionsWTotalMove> paths = ConcurrentPlanning.invokeAll(tasks, 8);
+
+        assertEquals(1, planned.get());
+        assertEquals(1, memo.legMisses());
+        assertEquals(7, memo.legHits());
+        paths.forEach(path -> assertEquals(List.of(start, goal), path.positions()));
+    }
+
+    @Test
+    void testPlanMemo_availabilityKeyedByDispatchSet() {
+        PlanMemo memo = new PlanMemo();
+        MedDispatchRec a = new MedDispatchRec(1, null, null, null, null);
+        MedDispatchRec b = new MedDispatchRec(2, null, null, null, null);
+        int[] looked = {0};
+
+        memo.availableDrones(1, List.of(a, b), () -> { looked[0]++; return List.of(); });
+        memo.availableDrones(1, List.of(b, a), () -> { looked[0]++; return List.of(); });
+        memo.availableDrones(2, List.of(a, b), () -> { looked[0]++; return List.of(); });
+
+        assertEquals(2, looked[0]);
+        assertEquals(1, memo.availabilityHits());
+        System.out.println(memo);
+    }
+
+    // --------------------- ConcurrentPlanning ---------------------
+
+    @Test
+    void testConcurrentPlanning_keepsTaskOrder() {
+        List<java.util.concurrent.Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int task = i;
+            // later tasks finish first
+            tasks.add(() -> {
+                Thread.sleep(5L * (8 - task));
+                return task;
+            });
+        }
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), ConcurrentPlanning.invokeAll(tasks, 3));
+    }
+
+    @Test
+    void testConcurrentPlanning_failureCancelsSiblings() {
+        java.util.concurrent.atomic.AtomicBoolean finished =
+                new java.util.concurrent.atomic.AtomicBoolean();
+        List<java.util.concurrent.Callable<Integer>> tasks = List.of(
+                () -> { throw new IllegalArgumentException("no drone"); },
+                () -> {
+                    Thread.sleep(10_000);
+                    finished.set(true);
+                    return 1;
+                });
+
+        long start = System.nanoTime();
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> ConcurrentPlanning.invokeAll(tasks, 2));
+
+        assertEquals("no drone", e.getMessage());
+        assertFalse(finished.get());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    @Test
+    void testConcurrentPlanning_nestedCallsShareOneBound() {
+        java.util.concurrent.atomic.AtomicInteger running =
+                new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicInteger most =
+                new java.util.concurrent.atomic.AtomicInteger();
+        // dates, then flights, then legs, as calcDeliveryPath nests them
+        List<java.util.concurrent.Callable<Integer>> dates = new ArrayList<>();
+        for (int d = 0; d < 3; d++) {
+            dates.add(() -> {
+                List<java.util.concurrent.Callable<Integer>> flights = new ArrayList<>();
+                for (int f = 0; f < 3; f++) {
+                    flights.add(() -> {
+                        List<java.util.concurrent.Callable<Integer>> legs = new ArrayList<>();
+                        for (int l = 0; l < 3; l++) {
+                            legs.add(() -> {
+                                most.accumulateAndGet(running.incrementAndGet(), Math::max);
+                                Thread.sleep(5);
+                                running.decrementAndGet();
+                                return 1;
+                            });
+                        }
+                        return ConcurrentPlanning.invokeAll(legs, 3).size();
+                    });
+                }
+                return ConcurrentPlanning.invokeAll(flights, 3).stream()
+                        .mapToInt(Integer::intValue).sum();
+            });
+        }
+
+        assertEquals(List.of(9, 9, 9), ConcurrentPlanning.invokeAll(dates, 3));
+        System.out.println("most legs at once: " + most.get());
+        assertTrue(most.get() <= 3);
+    }
 
     // --------------------- calculatePath ---------------------
 
     @Test
     void testCalculatePath_reconstructsFullRoute() throws Exception {
         var method = PathPlanningServiceImpl.class
-                .getDeclaredMethod("calculatePath", Map.class, Position.class, Position.class);
+                .getDeclaredMethod("calculatePath", NodeTable.class, int.class, Position.class);
         method.setAccessible(true);
 
         Position a = new Position(0.0, 0.0);
         Position b = new Position(1.0, 0.0);
         Position c = new Position(2.0, 0.0);
 
-        Map<Position, Position> parent = new HashMap<>();
-        parent.put(c, b);
-        parent.put(b, a);
+        NodeTable nodes = new NodeTable();
+        int nodeA = nodes.getOrAdd(Lattice.key(a));
+        int nodeB = nodes.getOrAdd(Lattice.key(b));
+        int nodeC = nodes.getOrAdd(Lattice.key(c));
+        nodes.setParent(nodeC, nodeB);
+        nodes.setParent(nodeB, nodeA);
 
-        var result = (PositionsWTotalMove) method.invoke(pathPlanning, parent, a, c);
+        var result = (PositionsWTotalMove) method.invoke(pathPlanning, nodes, nodeC, a);
         assertEquals(3, result.positions().size());
         assertEquals(a, result.positions().getFirst());
         assertEquals(c, result.positions().getLast());
@@ -21,10 +21,9 @@ public class QueryAvailableDronesTests {
     @BeforeEach
     void setup() {
         restClient = Mockito.mock(IlpRestClient.class);
-        // GeometryServiceImpl and DroneQueriesServiceImpl used in constructor; reuse simple real ones
+        // GeometryServiceImpl used in constructor; reuse a simple real one
         var geometry = new uk.ac.ed.acp.cw2.services.GeometryServiceImpl();
-        var droneQueries = new uk.ac.ed.acp.cw2.services.DroneQueriesServiceImpl(restClient);
-        planner = new PathPlanningServiceImpl(restClient, geometry, droneQueries);
+        planner = new PathPlanningServiceImpl(restClient, geometry);
     }
 
     @Test
@@ -0,0 +1,209 @@
+package uk.ac.ed.acp.cw2;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+import uk.ac.ed.acp.cw2.routing.HeldKarp;
+import uk.ac.ed.acp.cw2.routing.SavingsSolver;
+import uk.ac.ed.acp.cw2.routing.TourImprover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the delivery tour solvers in the routing package.
+ */
+public class TourSolverTests {
+
+    private static DistanceMatrix randomStops(Random random, int n) {
+        List<Position> stops = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            stops.add(new Position(random.nextDouble() * 0.01, random.nextDouble() * 0.01));
+        }
+        return DistanceMatrix.straightLine(stops);
+    }
+
+    // Exhaustive search over the order of stops 1 .. n-1
+    private static double bruteForce(DistanceMatrix matrix) {
+        int[] tour = new int[matrix.size()];
+        for (int i = 0; i < tour.length; i++) tour[i] = i;
+        return bruteForce(matrix, tour, 1);
+    }
+
+    private static double bruteForce(DistanceMatrix matrix, int[] tour, int from) {
+        if (from == tour.length) return TourImprover.length(matrix, tour);
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = from; i < tour.length; i++) {
+            swap(tour, from, i);
+            best = Math.min(best, bruteForce(matrix, tour, from + 1));
+            swap(tour, from, i);
+        }
+        return best;
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+
+    private static void assertTourOfAllStops(int[] tour, int n) {
+        assertEquals(0, tour[0]);
+        int[] sorted = tour.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < n; i++) assertEquals(i, sorted[i]);
+    }
+
+    // --------------------- TourImprover ---------------------
+
+    @Test
+    void testTourImprover_uncrossesTour() {
+        // corners of a square, visited across the diagonals
+        DistanceMatrix matrix = DistanceMatrix.straightLine(List.of(
+                new Position(0.0, 0.0), new Position(0.003, 0.0),
+                new Position(0.003, 0.003), new Position(0.0, 0.003)));
+        int[] crossed = {0, 2, 1, 3};
+
+        int[] improved = TourImprover.improve(matrix, crossed, 1_000_000_000L);
+
+        assertTourOfAllStops(improved, 4);
+        assertEquals(80, TourImprover.length(matrix, improved), 1e-6);
+        assertTrue(TourImprover.length(matrix, crossed) > 80);
+    }
+
+    @Test
+    void testTourImprover_neverWorseAndStartsAtServicePoint() {
+        Random random = new Random(12);
+        int optimal = 0;
+        for (int trial = 0; trial < 30; trial++) {
+            DistanceMatrix matrix = randomStops(random, 8);
+            int[] tour = {0, 1, 2, 3, 4, 5, 6, 7};
+
+            int[] improved = TourImprover.improve(matrix, tour, 1_000_000_000L);
+
+            assertTourOfAllStops(improved, 8);
+            double length = TourImprover.length(matrix, improved);
+            double best = bruteForce(matrix);
+            assertTrue(length <= TourImprover.length(matrix, tour) + 1e-9);
+            assertTrue(length >= best - 1e-9);
+            if (length < best + 1e-9) optimal++;
+        }
+        System.out.println("2-opt / Or-opt optimal on " + optimal + " of 30 tours");
+        assertTrue(optimal >= 20);
+    }
+
+    @Test
+    void testTourImprover_zeroBudgetKeepsTour() {
+        DistanceMatrix matrix = randomStops(new Random(3), 10);
+        int[] tour = {0, 9, 1, 8, 2, 7, 3, 6, 4, 5};
+
+        assertArrayEquals(tour, TourImprover.improve(matrix, tour, 0));
+    }
+
+    // --------------------- HeldKarp ---------------------
+
+    @Test
+    void testHeldKarp_matchesBruteForce() {
+        Random random = new Random(7);
+        for (int n = 1; n <= 9; n++) {
+            for (int trial = 0; trial < 5; trial++) {
+                DistanceMatrix matrix = randomStops(random, n);
+
+                int[] tour = HeldKarp.solve(matrix);
+
+                assertTourOfAllStops(tour, n);
+                assertEquals(bruteForce(matrix), TourImprover.length(matrix, tour), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void testHeldKarp_rejectsOversizedBatches() {
+        DistanceMatrix matrix = randomStops(new Random(5), HeldKarp.MAX_DELIVERIES + 2);
+        assertThrows(IllegalArgumentException.class, () -> HeldKarp.solve(matrix));
+    }
+
+    @Test
+    void testHeldKarp_noWorseThanLocalSearchOnTwelveDeliveries() {
+        Random random = new Random(21);
+        for (int trial = 0; trial < 5; trial++) {
+            DistanceMatrix matrix = randomStops(random, 13);
+            int[] start = new int[13];
+            for (int i = 0; i < start.length; i++) start[i] = i;
+
+            long t0 = System.nanoTime();
+            int[] exact = HeldKarp.solve(matrix);
+            long t1 = System.nanoTime();
+            int[] local = TourImprover.improve(matrix, start, 1_000_000_000L);
+            System.out.printf("exact %.2f in %d ms, local search %.2f%n",
+                    TourImprover.length(matrix, exact), (t1 - t0) / 1_000_000,
+                    TourImprover.length(matrix, local));
+
+            assertTourOfAllStops(exact, 13);
+            assertTrue(TourImprover.length(matrix, exact)
+                    <= TourImprover.length(matrix, local) + 1e-9);
+        }
+    }
+
+    // --------------------- SavingsSolver ---------------------
+
+    private static void assertEveryStopOnce(List<int[]> routes, int n) {
+        int[] seen = new int[n];
+        for (int[] route : routes) {
+            for (int stop : route) seen[stop]++;
+        }
+        assertEquals(0, seen[0]);
+        for (int stop = 1; stop < n; stop++) assertEquals(1, seen[stop]);
+    }
+
+    @Test
+    void testSavings_respectsCapacity() {
+        Random random = new Random(4);
+        for (int trial = 0; trial < 10; trial++) {
+            DistanceMatrix matrix = randomStops(random, 12);
+
+            List<int[]> routes = SavingsSolver.solve(matrix, route -> route.length <= 3);
+
+            assertEveryStopOnce(routes, 12);
+            assertTrue(routes.stream().allMatch(route -> route.length <= 3));
+            // 11 stops, 3 to a flight
+            assertTrue(routes.size() >= 4);
+        }
+    }
+
+    @Test
+    void testSavings_keepsClustersApart() {
+        // depot in the middle, three stops far east and three far west
+        DistanceMatrix matrix = DistanceMatrix.straightLine(List.of(
+                new Position(0.0, 0.0),
+                new Position(0.01, 0.0), new Position(-0.01, 0.0),
+                new Position(0.0101, 0.0002), new Position(-0.0101, 0.0002),
+                new Position(0.0102, -0.0002), new Position(-0.0102, -0.0002)));
+
+        List<int[]> routes = SavingsSolver.solve(matrix, route -> route.length <= 3);
+
+        assertEveryStopOnce(routes, 7);
+        assertEquals(2, routes.size());
+        for (int[] route : routes) {
+            // east stops are odd, west stops even
+            int side = route[0] % 2;
+            for (int stop : route) assertEquals(side, stop % 2);
+        }
+    }
+
+    @Test
+    void testSavings_growsFlightsUntilAcceptable() {
+        // a shared cost: no flight is acceptable with fewer than 3 stops
+        DistanceMatrix matrix = randomStops(new Random(9), 8);
+
+        List<int[]> routes = SavingsSolver.solve(matrix,
+                route -> route.length <= 4, route -> route.length >= 3);
+
+        assertEveryStopOnce(routes, 8);
+        assertTrue(routes.stream().allMatch(route -> route.length >= 3 && route.length <= 4));
+    }
+}